@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local load test for PlaceDBServer. Client threads send requests back to
+ * back for a fixed time, in a mix of 60% zipcode lookups and 10% each of
+ * prefix, distance, town and rank queries, then the requests per second and
+ * the latency percentiles of each endpoint are printed.
+ * It is built into the benchmark jar, not the database's own, so run it
+ * from the directory holding the CSV files with
+ * java -cp jmh/target/benchmarks.jar PlaceDBLoadTest [threads] [seconds] [base URL]
+ * Without a base URL it starts a server on a free port in the same JVM.
+ * It is in the default package, like the server it drives.
+ */
+public class PlaceDBLoadTest {
+    private static final String[] ENDPOINTS = {"zip", "prefix", "distance", "town", "rank"};
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        List<Place> places = ZipcodeFileParser.readZipCodeFiles("uszipcodes.csv", "ziplocs.csv", false);
+        PlaceDBServer server = null;
+        String baseUrl;
+        if (args.length > 2) {
+            baseUrl = args[2];
+        } else {
+            ConcurrentPlaceDatabase db = new ConcurrentPlaceDatabase();
+            db.addAll(places);
+            server = new PlaceDBServer(db, 0);
+            server.start();
+            baseUrl = "http://localhost:" + server.getPort();
+        }
+        try {
+            run(baseUrl, places, threads, seconds);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private static void run(String baseUrl, List<Place> places, int threads, int seconds)
+            throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+        for (String endpoint : ENDPOINTS) {
+            latencies.put(endpoint, new LatencyHistogram());
+        }
+        LongAdder errors = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> clients = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            clients.add(new Thread(() -> {
+                while (running.get()) {
+                    int pick = random.nextInt(10);
+                    String endpoint = pick < 6 ? "zip" : ENDPOINTS[pick - 5];
+                    URI uri = URI.create(baseUrl + path(endpoint, places, random));
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri).build(),
+                                HttpResponse.BodyHandlers.ofString());
+                        // 404 is a valid answer, for example for a zipcode without a location.
+                        if (response.statusCode() != 200 && response.statusCode() != 404) {
+                            errors.increment();
+                        }
+                    } catch (IOException e) {
+                        errors.increment();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    latencies.get(endpoint).record(System.nanoTime() - start);
+                }
+            }));
+        }
+        // Warm up the server and the client for a second before measuring.
+        clients.forEach(Thread::start);
+        Thread.sleep(1_000);
+        latencies.values().forEach(LatencyHistogram::reset);
+        errors.reset();
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1_000L);
+        long elapsed = System.nanoTime() - start;
+        running.set(false);
+        for (Thread thread : clients) {
+            thread.join();
+        }
+
+        long total = 0;
+        System.out.printf("%d client threads, %d s against %s%n", threads, seconds, baseUrl);
+        System.out.printf("%-10s %10s %10s %10s %10s %10s%n", "endpoint", "requests", "p50 us", "p99 us",
+                "p99.9 us", "max us");
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            total += histogram.getCount();
+            System.out.printf("%-10s %10d %10.0f %10.0f %10.0f %10.0f%n", entry.getKey(), histogram.getCount(),
+                    histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                    histogram.getValueAtPercentile(99.9) / 1e3, histogram.getMax() / 1e3);
+        }
+        System.out.printf("%,.0f requests/s, %d errors%n", total / (elapsed / 1e9), errors.sum());
+    }
+
+    private static String path(String endpoint, List<Place> places, Random random) {
+        Place place = places.get(random.nextInt(places.size()));
+        switch (endpoint) {
+            case "prefix":
+                return "/prefix/" + place.getZipcode().substring(0, Math.min(4, place.getZipcode().length()));
+            case "distance":
+                return "/distance?from=" + place.getZipcode()
+                        + "&to=" + places.get(random.nextInt(places.size())).getZipcode();
+            case "town":
+                return "/town/" + encode(place.getTown());
+            case "rank":
+                return "/rank/" + encode(place.getTown());
+            default:
+                return "/zip/" + place.getZipcode();
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(String.valueOf(value), StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
@@ -0,0 +1,110 @@
+package placedb.jmh;
+
+import static placedb.jmh.Handles.method;
+import static placedb.jmh.Handles.type;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of ConcurrentPlaceDatabase read throughput while a writer
+ * adds places. Each read is a zipcode lookup, a population rank of its town
+ * and a distance; the writer adds a place every 20 ms and sorts by town name
+ * after every tenth. The group runs 4 readers to the writer; run it with
+ * -tg 1,1 or -tg 16,1 for other reader counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ConcurrentBenchmarks {
+    // A power of two, so the next query is a mask away.
+    private static final int QUERIES = 1 << 14;
+
+    private static final Class<?> PLACE_DB = type("PlaceDB");
+    private static final Class<?> PLACE = type("Place");
+
+    private static final MethodHandle READ_ZIP_CODES = method(PLACE_DB, "readZipCodes", void.class);
+    private static final MethodHandle LOOKUP_BY_ZIPCODE = method(PLACE_DB, "lookupByZipcode", PLACE, String.class);
+    private static final MethodHandle RANK_BY_POPULATION = method(PLACE_DB, "rankByPopulation", int.class, String.class);
+    private static final MethodHandle DISTANCE = method(PLACE_DB, "distance", double.class, String.class, String.class);
+    private static final MethodHandle ADD_PLACE = method(PLACE_DB, "addPlace", void.class, PLACE);
+    private static final MethodHandle SORT_BY_TOWN_NAME = method(PLACE_DB, "sortByTownName", void.class);
+    private static final MethodHandle GET_SIZE = method(PLACE_DB, "getSize", int.class);
+    private static final MethodHandle GET_PLACE = method(PLACE_DB, "getPlace", PLACE, int.class);
+    private static final MethodHandle GET_ZIPCODE = method(PLACE, "getZipcode", String.class);
+    private static final MethodHandle GET_TOWN = method(PLACE, "getTown", String.class);
+    private static final MethodHandle NEW_PLACE =
+            Handles.constructor(PLACE, String.class, String.class, String.class);
+
+    private Object db;
+    private final String[] zipcodes = new String[QUERIES];
+    private int added;
+
+    /**
+     * Where each reader is in the queries.
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            next = new Random().nextInt(QUERIES);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        db = Handles.constructor(type("ConcurrentPlaceDatabase")).invoke();
+        READ_ZIP_CODES.invokeExact(db);
+        int size = (int) GET_SIZE.invokeExact(db);
+        Random random = new Random(42);
+        for (int i = 0; i < QUERIES; i++) {
+            Object place = GET_PLACE.invokeExact(db, random.nextInt(size));
+            zipcodes[i] = (String) GET_ZIPCODE.invokeExact(place);
+        }
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(4)
+    public double read(Reader reader) throws Throwable {
+        String zipcode = zipcodes[reader.next++ & (QUERIES - 1)];
+        Object place = LOOKUP_BY_ZIPCODE.invokeExact(db, zipcode);
+        String town = (String) GET_TOWN.invokeExact(place);
+        int rank = (int) RANK_BY_POPULATION.invokeExact(db, town);
+        return rank + (double) DISTANCE.invokeExact(db, zipcode, zipcodes[reader.next & (QUERIES - 1)]);
+    }
+
+    /**
+     * Only the one writer thread touches added.
+     */
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public void write() throws Throwable {
+        ADD_PLACE.invokeExact(db, (Object) NEW_PLACE.invokeExact("W" + added, "Writer Town", "ZZ"));
+        if (++added % 10 == 0) {
+            SORT_BY_TOWN_NAME.invokeExact(db);
+        }
+        Thread.sleep(20);
+    }
+}
@@ -0,0 +1,167 @@
+package placedb.jmh;
+
+import static placedb.jmh.Handles.constant;
+import static placedb.jmh.Handles.method;
+import static placedb.jmh.Handles.type;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the PlaceDB decorators in front of a MyPlaceDatabase:
+ * what InstrumentedPlaceDB adds to a query when it times one call in 256 (the
+ * default) and every call, and what CachingPlaceDB saves with an LRU and a
+ * TinyLFU cache of 1,000 entries.
+ *
+ * The queries are drawn from a Zipf distribution (exponent 1, so the 100 most
+ * popular zipcodes get about 40% of them), the kind of traffic the cache is
+ * for. The mixed queries replace one in four with a zipcode drawn uniformly,
+ * which pushes LRU out of its hot set; the cache report printed at the end of
+ * each trial gives the hit rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecoratorBenchmarks {
+    // A power of two, so the next query is a mask away.
+    private static final int QUERIES = 1 << 16;
+    private static final int CACHE_SIZE = 1_000;
+
+    private static final Class<?> PLACE_DB = type("PlaceDB");
+    private static final Class<?> PLACE = type("Place");
+
+    private static final MethodHandle READ_ZIP_CODES = method(PLACE_DB, "readZipCodes", void.class);
+    private static final MethodHandle LOOKUP_BY_ZIPCODE = method(PLACE_DB, "lookupByZipcode", PLACE, String.class);
+    private static final MethodHandle DISTANCE = method(PLACE_DB, "distance", double.class, String.class, String.class);
+    private static final MethodHandle LOOKUP_BY_TOWN_NAME =
+            method(PLACE_DB, "lookupByTownName", List.class, String.class);
+    private static final MethodHandle GET_SIZE = method(PLACE_DB, "getSize", int.class);
+    private static final MethodHandle GET_PLACE = method(PLACE_DB, "getPlace", PLACE, int.class);
+    private static final MethodHandle GET_ZIPCODE = method(PLACE, "getZipcode", String.class);
+    private static final MethodHandle GET_TOWN = method(PLACE, "getTown", String.class);
+
+    @Param({"none", "instrumented", "instrumentedEveryCall", "cacheLRU", "cacheTinyLFU"})
+    public String decorator;
+
+    private Object db;
+    private final String[] zipcodes = new String[QUERIES];
+    private final String[] others = new String[QUERIES];
+    private final String[] towns = new String[QUERIES];
+    private final String[] mixed = new String[QUERIES];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        Object plain = Handles.constructor(type("MyPlaceDatabase")).invoke();
+        READ_ZIP_CODES.invokeExact(plain);
+        db = decorate(plain);
+
+        int size = (int) GET_SIZE.invokeExact(plain);
+        List<String> all = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Object place = GET_PLACE.invokeExact(plain, i);
+            all.add((String) GET_ZIPCODE.invokeExact(place));
+        }
+        zipf(all, zipcodes, new Random(42));
+        zipf(all, others, new Random(43));
+        for (int i = 0; i < QUERIES; i++) {
+            Object place = LOOKUP_BY_ZIPCODE.invokeExact(plain, zipcodes[i]);
+            towns[i] = (String) GET_TOWN.invokeExact(place);
+        }
+        Random random = new Random(44);
+        for (int i = 0; i < QUERIES; i++) {
+            mixed[i] = i % 4 == 0 ? all.get(random.nextInt(size)) : zipcodes[i];
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        if (!decorator.equals("none")) {
+            System.out.print((String) method(db.getClass(), "report", String.class).invoke(db));
+        }
+    }
+
+    private Object decorate(Object plain) throws Throwable {
+        switch (decorator) {
+            case "none":
+                return plain;
+            case "instrumented":
+                return Handles.constructor(type("InstrumentedPlaceDB"), PLACE_DB).invoke(plain);
+            case "instrumentedEveryCall":
+                return Handles.constructor(type("InstrumentedPlaceDB"), PLACE_DB, int.class).invoke(plain, 1);
+            case "cacheLRU":
+            case "cacheTinyLFU":
+                Object policy = constant("BoundedCache$Policy", decorator.equals("cacheLRU") ? "LRU" : "TINY_LFU");
+                return Handles.constructor(type("CachingPlaceDB"), PLACE_DB, int.class, type("BoundedCache$Policy"))
+                        .invoke(plain, CACHE_SIZE, policy);
+            default:
+                throw new IllegalArgumentException("unknown decorator " + decorator);
+        }
+    }
+
+    /**
+     * Draws zipcodes with probability proportional to 1 / rank, ranks given by
+     * a fixed shuffle of all the zipcodes.
+     */
+    private static void zipf(List<String> all, String[] into, Random random) {
+        List<String> ranked = new ArrayList<>(all);
+        Collections.shuffle(ranked, new Random(7));
+        double[] cumulative = new double[ranked.size()];
+        double total = 0;
+        for (int rank = 0; rank < cumulative.length; rank++) {
+            total += 1.0 / (rank + 1);
+            cumulative[rank] = total;
+        }
+        for (int i = 0; i < into.length; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            into[i] = ranked.get(rank < 0 ? -rank - 1 : rank);
+        }
+    }
+
+    private int next() {
+        return next++ & (QUERIES - 1);
+    }
+
+    @Benchmark
+    public Object lookupByZipcode() throws Throwable {
+        return (Object) LOOKUP_BY_ZIPCODE.invokeExact(db, zipcodes[next()]);
+    }
+
+    @Benchmark
+    public double distance() throws Throwable {
+        int i = next();
+        return (double) DISTANCE.invokeExact(db, zipcodes[i], others[i]);
+    }
+
+    @Benchmark
+    public List<?> lookupByTownName() throws Throwable {
+        return (List<?>) LOOKUP_BY_TOWN_NAME.invokeExact(db, towns[next()]);
+    }
+
+    @Benchmark
+    public Object lookupByZipcodeMixed() throws Throwable {
+        return (Object) LOOKUP_BY_ZIPCODE.invokeExact(db, mixed[next()]);
+    }
+}
@@ -0,0 +1,82 @@
+package placedb.jmh;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Lookups of the database classes for the benchmarks. Those classes are in
+ * the default package, which JMH does not allow for benchmarks and Java does
+ * not let a named package import from, so the benchmarks reach them through
+ * method handles looked up once, by name, and held in static final fields;
+ * the JIT treats those as constants and inlines invokeExact to the call it
+ * stands for, so the handles add nothing to what is measured.
+ *
+ * Every database class in a signature (receiver, parameters, result) is
+ * adapted to Object, which is all a call site in a benchmark can name.
+ */
+final class Handles {
+    private Handles() {
+    }
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(name + " is not on the class path", e);
+        }
+    }
+
+    /**
+     * Looks up a public instance method.
+     */
+    static MethodHandle method(Class<?> owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return erase(MethodHandles.publicLookup()
+                    .findVirtual(owner, name, MethodType.methodType(returnType, parameterTypes)));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException(owner.getName() + "." + name, e);
+        }
+    }
+
+    /**
+     * Looks up a public constructor; the handle returns Object.
+     */
+    static MethodHandle constructor(Class<?> owner, Class<?>... parameterTypes) {
+        try {
+            return erase(MethodHandles.publicLookup()
+                    .findConstructor(owner, MethodType.methodType(void.class, parameterTypes)));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException(owner.getName() + " constructor", e);
+        }
+    }
+
+    /**
+     * @return the constant of a database enum, such as DistanceUnit.MILES
+     */
+    static Object constant(String enumType, String name) {
+        for (Object constant : type(enumType).getEnumConstants()) {
+            if (((Enum<?>) constant).name().equals(name)) {
+                return constant;
+            }
+        }
+        throw new IllegalStateException(enumType + " has no constant " + name);
+    }
+
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType callSite = handle.type();
+        for (int i = 0; i < callSite.parameterCount(); i++) {
+            if (isDatabaseType(callSite.parameterType(i))) {
+                callSite = callSite.changeParameterType(i, Object.class);
+            }
+        }
+        if (isDatabaseType(callSite.returnType())) {
+            callSite = callSite.changeReturnType(Object.class);
+        }
+        return handle.asType(callSite);
+    }
+
+    private static boolean isDatabaseType(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty();
+    }
+}
@@ -0,0 +1,101 @@
+package placedb.jmh;
+
+import static placedb.jmh.Handles.method;
+import static placedb.jmh.Handles.type;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of making one added place durable: rewriting the whole
+ * database with saveToFile after each addPlace, against JournaledPlaceDB
+ * appending it to its log, with one writer and with eight writers sharing
+ * fsyncs. The files are in a temporary directory deleted after each trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalBenchmarks {
+    private static final Class<?> PLACE_DB = type("PlaceDB");
+
+    private static final MethodHandle READ_ZIP_CODES = method(PLACE_DB, "readZipCodes", void.class);
+    private static final MethodHandle SAVE_TO_FILE = method(PLACE_DB, "saveToFile", void.class, String.class);
+    private static final MethodHandle LOAD_FROM_FILE = method(PLACE_DB, "loadFromFile", void.class, String.class);
+    private static final MethodHandle ADD_PLACE = method(PLACE_DB, "addPlace", void.class, type("Place"));
+    private static final MethodHandle CLOSE = method(type("JournaledPlaceDB"), "close", void.class);
+    private static final MethodHandle NEW_PLACE =
+            Handles.constructor(type("Place"), String.class, String.class, String.class);
+
+    // Zipcodes not in the CSV files, unique across the threads.
+    private final AtomicLong next = new AtomicLong();
+    private File directory;
+    private String snapshot;
+    private Object plain;
+    private Object journaled;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        directory = Files.createTempDirectory("journal").toFile();
+        snapshot = new File(directory, "places.db").getPath();
+        plain = Handles.constructor(type("MyPlaceDatabase")).invoke();
+        READ_ZIP_CODES.invokeExact(plain);
+        SAVE_TO_FILE.invokeExact(plain, snapshot);
+        journaled = Handles.constructor(type("JournaledPlaceDB"), PLACE_DB, String.class)
+                .invoke(Handles.constructor(type("MyPlaceDatabase")).invoke(), snapshot);
+        LOAD_FROM_FILE.invokeExact(journaled, snapshot);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        CLOSE.invokeExact(journaled);
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private Object newPlace(String prefix) throws Throwable {
+        return (Object) NEW_PLACE.invokeExact(prefix + next.getAndIncrement(), "Journaled", "ZZ");
+    }
+
+    /**
+     * Writes to a file of its own, not the journal's snapshot.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void addPlaceThenSaveToFile() throws Throwable {
+        ADD_PLACE.invokeExact(plain, newPlace("S"));
+        SAVE_TO_FILE.invokeExact(plain, snapshot + ".plain");
+    }
+
+    @Benchmark
+    public void addPlaceJournaled() throws Throwable {
+        ADD_PLACE.invokeExact(journaled, newPlace("J"));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void addPlaceJournaled8Writers() throws Throwable {
+        ADD_PLACE.invokeExact(journaled, newPlace("J"));
+    }
+}
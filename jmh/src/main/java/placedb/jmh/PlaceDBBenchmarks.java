@@ -0,0 +1,385 @@
+package placedb.jmh;
+
+import static placedb.jmh.Handles.constant;
+import static placedb.jmh.Handles.method;
+import static placedb.jmh.Handles.type;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the PlaceDB operations, parameterized by implementation
+ * so the backends are compared on the same data and the same queries. Each
+ * trial loads the bundled CSV files with readZipCodes, so run the benchmarks
+ * from the directory holding uszipcodes.csv (and ziplocs.csv, without which
+ * the distance and spatial queries have no locations to work with).
+ *
+ * The PlaceDB and Place methods are called through method handles, see
+ * Handles. Only the constructor depends on the implementation, and it is
+ * used outside the per-query benchmarks.
+ *
+ * Anything the databases print, such as the output of listAllPlaces, is
+ * discarded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlaceDBBenchmarks {
+    // A power of two, so the next query is a mask away.
+    private static final int QUERIES = 1024;
+    // The side of the distance matrix, so it has QUERIES cells.
+    private static final int MATRIX = 32;
+
+    private static final Class<?> PLACE_DB = type("PlaceDB");
+    private static final Class<?> PLACE = type("Place");
+    private static final Class<?> LOCATED_PLACE = type("LocatedPlace");
+    private static final Object MILES = constant("DistanceUnit", "MILES");
+
+    private static final MethodHandle READ_ZIP_CODES = method(PLACE_DB, "readZipCodes", void.class);
+    private static final MethodHandle SAVE_TO_FILE = method(PLACE_DB, "saveToFile", void.class, String.class);
+    private static final MethodHandle LOAD_FROM_FILE = method(PLACE_DB, "loadFromFile", void.class, String.class);
+    private static final MethodHandle ADD_ALL = method(PLACE_DB, "addAll", int.class, Collection.class);
+    private static final MethodHandle LOOKUP_BY_ZIPCODE = method(PLACE_DB, "lookupByZipcode", PLACE, String.class);
+    private static final MethodHandle LOOKUP_ALL = method(PLACE_DB, "lookupAll", Map.class, Collection.class);
+    private static final MethodHandle LIST_ALL_PLACES = method(PLACE_DB, "listAllPlaces", void.class, String.class);
+    private static final MethodHandle PLACES_WITH_PREFIX =
+            method(PLACE_DB, "placesWithPrefix", Stream.class, String.class);
+    private static final MethodHandle DISTANCE = method(PLACE_DB, "distance", double.class, String.class, String.class);
+    private static final MethodHandle DISTANCE_MATRIX = method(PLACE_DB, "distanceMatrix", double[][].class,
+            List.class, List.class, type("DistanceUnit"));
+    private static final MethodHandle FIND_NEAREST =
+            method(PLACE_DB, "findNearest", List.class, double.class, double.class, int.class);
+    private static final MethodHandle FIND_WITHIN_RADIUS =
+            method(PLACE_DB, "findWithinRadius", List.class, double.class, double.class, double.class);
+    private static final MethodHandle SORT_BY_TOWN_NAME = method(PLACE_DB, "sortByTownName", void.class);
+    private static final MethodHandle BINARY_SEARCH_BY_TOWN_NAME =
+            method(PLACE_DB, "binarySearchByTownName", int.class, String.class, int.class, int.class);
+    private static final MethodHandle SEQUENTIAL_SEARCH_BY_TOWN_NAME =
+            method(PLACE_DB, "sequentialSearchByTownName", int.class, String.class);
+    private static final MethodHandle LOOKUP_BY_TOWN_NAME =
+            method(PLACE_DB, "lookupByTownName", List.class, String.class);
+    private static final MethodHandle COMPLETE_TOWN_NAME =
+            method(PLACE_DB, "completeTownName", List.class, String.class, String.class, int.class);
+    private static final MethodHandle SEARCH_TOWN_NAME =
+            method(PLACE_DB, "searchTownName", List.class, String.class, String.class, int.class);
+    private static final MethodHandle RANK_BY_POPULATION = method(PLACE_DB, "rankByPopulation", int.class, String.class);
+    private static final MethodHandle TOP_BY_POPULATION =
+            method(PLACE_DB, "topByPopulation", List.class, String.class, int.class);
+    private static final MethodHandle FIND_BY_POPULATION =
+            method(PLACE_DB, "findByPopulation", List.class, String.class, int.class, int.class);
+    private static final MethodHandle POPULATION_BY_STATE = method(PLACE_DB, "populationByState", Map.class);
+    private static final MethodHandle POPULATION_BY_ZIP_PREFIX =
+            method(PLACE_DB, "populationByZipPrefix", Map.class, int.class);
+    private static final MethodHandle POPULATION_WITHIN_RADIUS = method(PLACE_DB, "populationWithinRadius",
+            type("PopulationStats"), double.class, double.class, double.class);
+    private static final MethodHandle GET_SIZE = method(PLACE_DB, "getSize", int.class);
+    private static final MethodHandle GET_PLACE = method(PLACE_DB, "getPlace", PLACE, int.class);
+    private static final MethodHandle GET_ZIPCODE = method(PLACE, "getZipcode", String.class);
+    private static final MethodHandle GET_TOWN = method(PLACE, "getTown", String.class);
+    private static final MethodHandle GET_STATE = method(PLACE, "getState", String.class);
+    private static final MethodHandle GET_LATITUDE = method(LOCATED_PLACE, "getLatitude", double.class);
+    private static final MethodHandle GET_LONGITUDE = method(LOCATED_PLACE, "getLongitude", double.class);
+
+    @Param({"MyPlaceDatabase", "ColumnarPlaceDatabase", "OffHeapPlaceDatabase", "ConcurrentPlaceDatabase"})
+    public String implementation;
+
+    private MethodHandle constructor;
+    private PrintStream console;
+    // Loaded from the CSV files, in file order.
+    private Object db;
+    // The same places sorted by town name, for binarySearchByTownName.
+    private Object sorted;
+    private int sortedSize;
+    // Every place of db, for addAll.
+    private List<Object> places;
+    private final String[] zipcodes = new String[QUERIES];
+    private final String[] prefixes = new String[QUERIES];
+    private final String[] towns = new String[QUERIES];
+    // The towns with their second and third letters swapped, for searchTownName.
+    private final String[] misspelt = new String[QUERIES];
+    private final String[] states = new String[QUERIES];
+    private final double[] latitudes = new double[QUERIES];
+    private final double[] longitudes = new double[QUERIES];
+    private List<String> allZipcodes;
+    private List<String> matrixFrom;
+    private List<String> matrixTo;
+    private File loadFile;
+    private File saveFile;
+    private int next;
+
+    /**
+     * A database loaded from the saved file, unsorted, for each call of sortByTownName;
+     * sorting an already sorted database would not be representative.
+     */
+    @State(Scope.Thread)
+    public static class Unsorted {
+        Object db;
+
+        @Setup(Level.Invocation)
+        public void load(PlaceDBBenchmarks shared) throws Throwable {
+            db = shared.newDatabase();
+            LOAD_FROM_FILE.invokeExact(db, shared.loadFile.getPath());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        constructor = Handles.constructor(type(implementation));
+        db = newDatabase();
+        READ_ZIP_CODES.invokeExact(db);
+        int size = (int) GET_SIZE.invokeExact(db);
+        places = new ArrayList<>(size);
+        List<Object> located = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Object place = GET_PLACE.invokeExact(db, i);
+            places.add(place);
+            if (LOCATED_PLACE.isInstance(place)) {
+                located.add(place);
+            }
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < QUERIES; i++) {
+            Object place = places.get(random.nextInt(size));
+            zipcodes[i] = (String) GET_ZIPCODE.invokeExact(place);
+            prefixes[i] = zipcodes[i].substring(0, Math.min(3, zipcodes[i].length()));
+            towns[i] = (String) GET_TOWN.invokeExact(place);
+            misspelt[i] = towns[i].length() > 2
+                    ? towns[i].charAt(0) + "" + towns[i].charAt(2) + towns[i].charAt(1) + towns[i].substring(3)
+                    : towns[i];
+            states[i] = (String) GET_STATE.invokeExact(place);
+            if (!located.isEmpty()) {
+                Object center = located.get(random.nextInt(located.size()));
+                latitudes[i] = (double) GET_LATITUDE.invokeExact(center);
+                longitudes[i] = (double) GET_LONGITUDE.invokeExact(center);
+            }
+        }
+        allZipcodes = Arrays.asList(zipcodes);
+        matrixFrom = allZipcodes.subList(0, MATRIX);
+        matrixTo = allZipcodes.subList(MATRIX, 2 * MATRIX);
+        loadFile = File.createTempFile("places", ".db");
+        saveFile = File.createTempFile("places", ".db");
+        SAVE_TO_FILE.invokeExact(db, loadFile.getPath());
+        sorted = newDatabase();
+        LOAD_FROM_FILE.invokeExact(sorted, loadFile.getPath());
+        SORT_BY_TOWN_NAME.invokeExact(sorted);
+        sortedSize = (int) GET_SIZE.invokeExact(sorted);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(console);
+        loadFile.delete();
+        saveFile.delete();
+    }
+
+    Object newDatabase() throws Throwable {
+        return (Object) constructor.invokeExact();
+    }
+
+    private int next() {
+        return next++ & (QUERIES - 1);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object readZipCodes() throws Throwable {
+        Object fresh = newDatabase();
+        READ_ZIP_CODES.invokeExact(fresh);
+        return fresh;
+    }
+
+    /**
+     * Adds every place to an empty database in one call, duplicate checks included.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int addAll() throws Throwable {
+        return (int) ADD_ALL.invokeExact(newDatabase(), (Collection) places);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void saveToFile() throws Throwable {
+        SAVE_TO_FILE.invokeExact(db, saveFile.getPath());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object loadFromFile() throws Throwable {
+        Object fresh = newDatabase();
+        LOAD_FROM_FILE.invokeExact(fresh, loadFile.getPath());
+        return fresh;
+    }
+
+    @Benchmark
+    public Object lookupByZipcode() throws Throwable {
+        return (Object) LOOKUP_BY_ZIPCODE.invokeExact(db, zipcodes[next()]);
+    }
+
+    /**
+     * Looks up every query zipcode in one call; the time is per zipcode, to compare with lookupByZipcode.
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public Map<?, ?> lookupAll() throws Throwable {
+        return (Map<?, ?>) LOOKUP_ALL.invokeExact(db, (Collection) allZipcodes);
+    }
+
+    /**
+     * Lists the places of a 3 digit prefix, about 45 of them, to a discarded stream.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void listAllPlaces() throws Throwable {
+        LIST_ALL_PLACES.invokeExact(db, prefixes[next()]);
+    }
+
+    /**
+     * Counts the places of a 3 digit prefix, without printing them.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long placesWithPrefix() throws Throwable {
+        return ((Stream<?>) PLACES_WITH_PREFIX.invokeExact(db, prefixes[next()])).count();
+    }
+
+    @Benchmark
+    public double distance() throws Throwable {
+        int i = next();
+        return (double) DISTANCE.invokeExact(db, zipcodes[i], zipcodes[QUERIES - 1 - i]);
+    }
+
+    /**
+     * A 32 x 32 matrix in one call; the time is per cell, to compare with distance.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MATRIX * MATRIX)
+    public double[][] distanceMatrix() throws Throwable {
+        return (double[][]) DISTANCE_MATRIX.invokeExact(db, matrixFrom, matrixTo, MILES);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<?> findNearest() throws Throwable {
+        int i = next();
+        return (List<?>) FIND_NEAREST.invokeExact(db, latitudes[i], longitudes[i], 10);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<?> findWithinRadius() throws Throwable {
+        int i = next();
+        return (List<?>) FIND_WITHIN_RADIUS.invokeExact(db, latitudes[i], longitudes[i], 25.0);
+    }
+
+    @Benchmark
+    public int rankByPopulation() throws Throwable {
+        return (int) RANK_BY_POPULATION.invokeExact(db, towns[next()]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<?> topByPopulation() throws Throwable {
+        return (List<?>) TOP_BY_POPULATION.invokeExact(db, states[next()], 50);
+    }
+
+    /**
+     * Every place in the country with a population from 10,000 to 20,000.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<?> findByPopulation() throws Throwable {
+        return (List<?>) FIND_BY_POPULATION.invokeExact(db, (String) null, 10_000, 20_000);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Map<?, ?> populationByState() throws Throwable {
+        return (Map<?, ?>) POPULATION_BY_STATE.invokeExact(db);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Map<?, ?> populationByZipPrefix() throws Throwable {
+        return (Map<?, ?>) POPULATION_BY_ZIP_PREFIX.invokeExact(db, 3);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object populationWithinRadius() throws Throwable {
+        int i = next();
+        return (Object) POPULATION_WITHIN_RADIUS.invokeExact(db, latitudes[i], longitudes[i], 50.0);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int sequentialSearchByTownName() throws Throwable {
+        return (int) SEQUENTIAL_SEARCH_BY_TOWN_NAME.invokeExact(db, towns[next()]);
+    }
+
+    @Benchmark
+    public List<?> lookupByTownName() throws Throwable {
+        return (List<?>) LOOKUP_BY_TOWN_NAME.invokeExact(db, towns[next()]);
+    }
+
+    /**
+     * The 10 best completions of the first 3 letters of a town.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<?> completeTownName() throws Throwable {
+        String town = towns[next()];
+        return (List<?>) COMPLETE_TOWN_NAME.invokeExact(db, town.substring(0, Math.min(3, town.length())),
+                (String) null, 10);
+    }
+
+    /**
+     * The 10 best matches of a town with two letters swapped.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<?> searchTownName() throws Throwable {
+        return (List<?>) SEARCH_TOWN_NAME.invokeExact(db, misspelt[next()], (String) null, 10);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void sortByTownName(Unsorted unsorted) throws Throwable {
+        SORT_BY_TOWN_NAME.invokeExact(unsorted.db);
+    }
+
+    @Benchmark
+    public int binarySearchByTownName() throws Throwable {
+        return (int) BINARY_SEARCH_BY_TOWN_NAME.invokeExact(sorted, towns[next()], 0, sortedSize - 1);
+    }
+}
@@ -0,0 +1,370 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache holding at most a fixed number of entries, with a choice of
+ * eviction policy:
+ * <ul>
+ *   <li>LRU evicts the entry used least recently.</li>
+ *   <li>TINY_LFU is W-TinyLFU, as in Caffeine: new entries go to a small LRU
+ *   window (1% of the cache); an entry leaving the window is only admitted to
+ *   the main cache if it has been asked for more often than the entry it would
+ *   replace. Frequencies are kept approximately in a count-min sketch of 4-bit
+ *   counters that are halved periodically, so a burst of one-off keys cannot
+ *   flush the entries that are used all the time. The main cache is a
+ *   segmented LRU: entries hit while on probation move to a protected
+ *   segment of 80% of the main cache.</li>
+ * </ul>
+ * Every method is synchronized, and lookups count hits and misses.
+ *
+ * Values are cached together with a generation number: remove and clear start
+ * a new generation, and put only stores a value computed in the current one
+ * (see getGeneration), so a value read from the source before an update cannot
+ * be cached after the update has invalidated it.
+ *
+ * @param <K> the key type
+ * @param <V> the value type; null values are not stored
+ */
+public class BoundedCache<K, V> {
+
+    public enum Policy {
+        LRU,
+        TINY_LFU
+    }
+
+    // Which list an entry is on.
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        int queue;
+        Node<K, V> previous;
+        Node<K, V> next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A doubly linked list with a sentinel, least recently used first.
+     */
+    private static final class Queue<K, V> {
+        final Node<K, V> head = new Node<>(null, null);
+        int size;
+
+        Queue() {
+            head.previous = head;
+            head.next = head;
+        }
+
+        Node<K, V> first() {
+            return head.next == head ? null : head.next;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.previous = head.previous;
+            node.next = head;
+            head.previous.next = node;
+            head.previous = node;
+            size++;
+        }
+
+        void remove(Node<K, V> node) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+            size--;
+        }
+
+        void clear() {
+            head.previous = head;
+            head.next = head;
+            size = 0;
+        }
+    }
+
+    private final Policy policy;
+    private final int maximumSize;
+    private final int windowMaximum;
+    private final int protectedMaximum;
+    private final Map<K, Node<K, V>> entries;
+    // Indexed by WINDOW, PROBATION and PROTECTED.
+    private final List<Queue<K, V>> queues = List.of(new Queue<>(), new Queue<>(), new Queue<>());
+    private final FrequencySketch sketch;
+
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maximumSize the most entries to hold, at least 1
+     * @param policy      how to choose the entry to evict
+     */
+    public BoundedCache(int maximumSize, Policy policy) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1: " + maximumSize);
+        }
+        this.policy = policy;
+        this.maximumSize = maximumSize;
+        this.entries = new HashMap<>(maximumSize * 4 / 3 + 1);
+        if (policy == Policy.LRU) {
+            windowMaximum = maximumSize;
+            protectedMaximum = 0;
+            sketch = null;
+        } else {
+            windowMaximum = Math.max(1, maximumSize / 100);
+            protectedMaximum = (maximumSize - windowMaximum) * 8 / 10;
+            sketch = new FrequencySketch(maximumSize);
+        }
+    }
+
+    /**
+     * Looks a key up, counting a hit or a miss and marking the entry as used.
+     *
+     * @param key the key
+     * @return the value, or null if the key is not cached
+     */
+    public synchronized V get(K key) {
+        if (sketch != null) {
+            sketch.increment(key);
+        }
+        Node<K, V> node = entries.get(key);
+        if (node == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        touch(node);
+        return node.value;
+    }
+
+    /**
+     * @return the current generation, to be read before computing a value for put
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches a value, evicting an entry if the cache is full, unless the
+     * cache has been invalidated since the value was computed.
+     *
+     * @param key        the key
+     * @param value      the value; null is ignored
+     * @param generation what getGeneration returned before the value was computed
+     * @return whether the value was stored
+     */
+    public synchronized boolean put(K key, V value, long generation) {
+        if (value == null || generation != this.generation) {
+            return false;
+        }
+        Node<K, V> node = entries.get(key);
+        if (node != null) {
+            node.value = value;
+            touch(node);
+            return true;
+        }
+        node = new Node<>(key, value);
+        entries.put(key, node);
+        node.queue = WINDOW;
+        queues.get(WINDOW).addLast(node);
+        if (queues.get(WINDOW).size > windowMaximum) {
+            evictFromWindow();
+        }
+        return true;
+    }
+
+    /**
+     * Removes one key and starts a new generation.
+     *
+     * @param key the key
+     */
+    public synchronized void remove(K key) {
+        generation++;
+        Node<K, V> node = entries.remove(key);
+        if (node != null) {
+            queues.get(node.queue).remove(node);
+        }
+    }
+
+    /**
+     * Removes every entry and starts a new generation. The hit and miss
+     * counts and the key frequencies are kept.
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        for (Queue<K, V> queue : queues) {
+            queue.clear();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return hits divided by lookups, or NaN before the first lookup
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? Double.NaN : (double) hits / lookups;
+    }
+
+    /**
+     * Sets the hit, miss and eviction counts back to zero.
+     */
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    private void touch(Node<K, V> node) {
+        if (node.queue == PROBATION) {
+            queues.get(PROBATION).remove(node);
+            node.queue = PROTECTED;
+            queues.get(PROTECTED).addLast(node);
+            if (queues.get(PROTECTED).size > protectedMaximum) {
+                Node<K, V> demoted = queues.get(PROTECTED).first();
+                queues.get(PROTECTED).remove(demoted);
+                demoted.queue = PROBATION;
+                queues.get(PROBATION).addLast(demoted);
+            }
+        } else {
+            queues.get(node.queue).remove(node);
+            queues.get(node.queue).addLast(node);
+        }
+    }
+
+    /**
+     * The window is one entry over its size. Under LRU that entry is evicted;
+     * under TinyLFU it becomes a candidate for the main cache and, if the
+     * cache is now over its size, either it or the probation entry used least
+     * recently is evicted, whichever is used less often.
+     */
+    private void evictFromWindow() {
+        Node<K, V> candidate = queues.get(WINDOW).first();
+        queues.get(WINDOW).remove(candidate);
+        if (policy == Policy.LRU) {
+            evict(candidate);
+            return;
+        }
+        candidate.queue = PROBATION;
+        queues.get(PROBATION).addLast(candidate);
+        if (entries.size() <= maximumSize) {
+            return;
+        }
+        Node<K, V> victim = queues.get(PROBATION).first();
+        if (victim != candidate && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+            victim = candidate;
+        }
+        queues.get(PROBATION).remove(victim);
+        evict(victim);
+    }
+
+    private void evict(Node<K, V> node) {
+        entries.remove(node.key);
+        evictions++;
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, sixteen to a long, with four
+     * counters per key. When the number of increments reaches ten times the
+     * cache size every counter is halved, so old popularity fades.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0x97cb3127L, 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int length = Integer.highestOneBit(Math.max(2, maximumSize) - 1) << 1;
+            table = new long[length];
+            sampleSize = 10 * maximumSize;
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                long slot = slot(hash, i);
+                frequency = Math.min(frequency, (int) ((table[index(slot)] >>> shift(slot)) & 0xF));
+            }
+            return frequency;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                long slot = slot(hash, i);
+                int index = index(slot);
+                int shift = shift(slot);
+                if (((table[index] >>> shift) & 0xF) != 0xF) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 17;
+            hash *= 0xed5ad4bb;
+            hash ^= hash >>> 11;
+            hash *= 0xac4c1b51;
+            return hash ^ (hash >>> 15);
+        }
+
+        private static long slot(int hash, int i) {
+            long slot = (hash + SEEDS[i]) * SEEDS[i];
+            return slot ^ (slot >>> 32);
+        }
+
+        private int index(long slot) {
+            return (int) slot & (table.length - 1);
+        }
+
+        private static int shift(long slot) {
+            return ((int) (slot >>> 40) & 15) << 2;
+        }
+    }
+}
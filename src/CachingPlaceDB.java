@@ -0,0 +1,348 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * The CachingPlaceDB class is a PlaceDB decorator that keeps the results of
+ * the most asked-for zipcode lookups, distances and town lookups in three
+ * BoundedCaches, for traffic that keeps coming back to the same few hundred
+ * places. Zipcodes that are not found are cached too. A distance between two
+ * zipcodes is cached once for both orders. Against an in-memory database
+ * whose zipcode lookups are already a hash lookup, only the town cache
+ * saves time (see DecoratorBenchmarks in the JMH module); the others pay
+ * off in front of slower databases.
+ *
+ * Adding a place removes its zipcode and town from the caches and empties the
+ * distance cache; loading, reading and sorting empty all three. Updates must
+ * therefore go through this object, not straight to the database it wraps.
+ * Places are returned as the database returned them, so a caller that
+ * changes a cached place changes it for everyone. The caches are thread-safe;
+ * the whole is as thread-safe as the database it wraps.
+ */
+public class CachingPlaceDB implements PlaceDB {
+    public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    private final PlaceDB delegate;
+    private final BoundedCache<String, Optional<Place>> zipcodes;
+    private final BoundedCache<String, Double> distances;
+    private final BoundedCache<String, List<Place>> towns;
+
+    public CachingPlaceDB(PlaceDB delegate) {
+        this(delegate, DEFAULT_MAXIMUM_SIZE, BoundedCache.Policy.TINY_LFU);
+    }
+
+    /**
+     * @param delegate    the database to cache
+     * @param maximumSize the most entries in each of the three caches
+     * @param policy      how the caches choose what to evict
+     */
+    public CachingPlaceDB(PlaceDB delegate, int maximumSize, BoundedCache.Policy policy) {
+        this.delegate = delegate;
+        this.zipcodes = new BoundedCache<>(maximumSize, policy);
+        this.distances = new BoundedCache<>(maximumSize, policy);
+        this.towns = new BoundedCache<>(maximumSize, policy);
+    }
+
+    public BoundedCache<String, Optional<Place>> getZipcodeCache() {
+        return zipcodes;
+    }
+
+    public BoundedCache<String, Double> getDistanceCache() {
+        return distances;
+    }
+
+    public BoundedCache<String, List<Place>> getTownCache() {
+        return towns;
+    }
+
+    /**
+     * @return a text table of the size, hit rate and evictions of each cache
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format("%-10s %8s %8s %12s %8s %10s%n",
+                "cache", "size", "maximum", "lookups", "hit %", "evictions"));
+        report(report, "zipcode", zipcodes);
+        report(report, "distance", distances);
+        report(report, "town", towns);
+        return report.toString();
+    }
+
+    private static void report(StringBuilder report, String name, BoundedCache<?, ?> cache) {
+        double hitRate = cache.getHitRate();
+        report.append(String.format("%-10s %8d %8d %12d %8s %10d%n", name, cache.size(), cache.getMaximumSize(),
+                cache.getHits() + cache.getMisses(),
+                Double.isNaN(hitRate) ? "-" : String.format("%.1f", hitRate * 100), cache.getEvictions()));
+    }
+
+    @Override
+    public Place lookupByZipcode(String zipcode) {
+        if (isInvalid(zipcode)) {
+            return delegate.lookupByZipcode(zipcode); // Reports the invalid zipcode on every call.
+        }
+        Optional<Place> cached = zipcodes.get(zipcode);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+        long generation = zipcodes.getGeneration();
+        Place place = delegate.lookupByZipcode(zipcode);
+        zipcodes.put(zipcode, Optional.ofNullable(place), generation);
+        return place;
+    }
+
+    /**
+     * Answers what it can from the cache and asks the database for the rest in one lookupAll call.
+     */
+    @Override
+    public Map<String, Place> lookupAll(Collection<String> zipcodes) {
+        Map<String, Place> found = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String zipcode : zipcodes) {
+            if (zipcode == null || zipcode.isEmpty()) {
+                continue;
+            }
+            Optional<Place> cached = this.zipcodes.get(zipcode);
+            if (cached == null) {
+                missing.add(zipcode);
+            }
+            // Keeps the input order; a missing zipcode is filled in or removed below.
+            found.put(zipcode, cached == null ? null : cached.orElse(null));
+        }
+        if (!missing.isEmpty()) {
+            long generation = this.zipcodes.getGeneration();
+            Map<String, Place> looked = delegate.lookupAll(missing);
+            for (String zipcode : missing) {
+                Place place = looked.get(zipcode);
+                this.zipcodes.put(zipcode, Optional.ofNullable(place), generation);
+                found.put(zipcode, place);
+            }
+        }
+        found.values().removeIf(place -> place == null);
+        return found;
+    }
+
+    @Override
+    public void addPlace(Place newPlace) {
+        delegate.addPlace(newPlace);
+        invalidate(newPlace);
+        distances.clear();
+    }
+
+    @Override
+    public int addAll(Collection<? extends Place> newPlaces) {
+        int added = delegate.addAll(newPlaces);
+        for (Place place : newPlaces) {
+            invalidate(place);
+        }
+        distances.clear();
+        return added;
+    }
+
+    private void invalidate(Place place) {
+        if (place == null) {
+            return;
+        }
+        if (place.getZipcode() != null) {
+            zipcodes.remove(place.getZipcode());
+        }
+        if (place.getTown() != null) {
+            towns.remove(townKey(place.getTown()));
+        }
+    }
+
+    private void invalidateAll() {
+        zipcodes.clear();
+        distances.clear();
+        towns.clear();
+    }
+
+    @Override
+    public void listAllPlaces(String prefix) {
+        delegate.listAllPlaces(prefix);
+    }
+
+    @Override
+    public Stream<Place> placesWithPrefix(String prefix) {
+        return delegate.placesWithPrefix(prefix);
+    }
+
+    @Override
+    public double distance(String zip1, String zip2) {
+        return distance(zip1, zip2, DistanceUnit.MILES);
+    }
+
+    @Override
+    public double distance(String zip1, String zip2, DistanceUnit unit) {
+        if (isInvalid(zip1) || isInvalid(zip2)) {
+            return delegate.distance(zip1, zip2, unit);
+        }
+        String key = distanceKey(zip1, zip2, unit);
+        Double cached = distances.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = distances.getGeneration();
+        double distance = delegate.distance(zip1, zip2, unit);
+        distances.put(key, distance, generation);
+        return distance;
+    }
+
+    /**
+     * Null and empty zipcodes are never cached; the database reports them.
+     */
+    private static boolean isInvalid(String zipcode) {
+        return zipcode == null || zipcode.isEmpty();
+    }
+
+    private static String distanceKey(String zip1, String zip2, DistanceUnit unit) {
+        String first = String.valueOf(zip1);
+        String second = String.valueOf(zip2);
+        if (first.compareTo(second) > 0) {
+            String swap = first;
+            first = second;
+            second = swap;
+        }
+        return first + ' ' + second + ' ' + unit.ordinal();
+    }
+
+    @Override
+    public double[] distances(String fromZip, List<String> toZips, DistanceUnit unit) {
+        return delegate.distances(fromZip, toZips, unit);
+    }
+
+    @Override
+    public double[][] distanceMatrix(List<String> fromZips, List<String> toZips, DistanceUnit unit) {
+        return delegate.distanceMatrix(fromZips, toZips, unit);
+    }
+
+    @Override
+    public List<LocatedPlace> findNearest(double latitude, double longitude, int k) {
+        return delegate.findNearest(latitude, longitude, k);
+    }
+
+    @Override
+    public List<LocatedPlace> findWithinRadius(double latitude, double longitude, double radiusMiles) {
+        return delegate.findWithinRadius(latitude, longitude, radiusMiles);
+    }
+
+    /**
+     * Empties the caches too, since sorting can change the order of the places in a town.
+     */
+    @Override
+    public void sortByTownName() {
+        delegate.sortByTownName();
+        invalidateAll();
+    }
+
+    @Override
+    public int binarySearchByTownName(String townName, int low, int high) {
+        return delegate.binarySearchByTownName(townName, low, high);
+    }
+
+    @Override
+    public int sequentialSearchByTownName(String townName) {
+        return delegate.sequentialSearchByTownName(townName);
+    }
+
+    /**
+     * @return an unmodifiable list, since it may be shared with other callers
+     */
+    @Override
+    public List<Place> lookupByTownName(String townName) {
+        if (townName == null) {
+            return delegate.lookupByTownName(null); // Not cached, so it cannot share a key with a town named "null".
+        }
+        String key = townKey(townName);
+        List<Place> cached = towns.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = towns.getGeneration();
+        List<Place> found = Collections.unmodifiableList(delegate.lookupByTownName(townName));
+        towns.put(key, found, generation);
+        return found;
+    }
+
+    @Override
+    public List<TownMatch> completeTownName(String prefix, String state, int k) {
+        return delegate.completeTownName(prefix, state, k);
+    }
+
+    @Override
+    public List<TownMatch> searchTownName(String query, String state, int k) {
+        return delegate.searchTownName(query, state, k);
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByState() {
+        return delegate.populationByState();
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByZipPrefix(int digits) {
+        return delegate.populationByZipPrefix(digits);
+    }
+
+    @Override
+    public PopulationStats populationWithinRadius(double latitude, double longitude, double radiusMiles) {
+        return delegate.populationWithinRadius(latitude, longitude, radiusMiles);
+    }
+
+    private static String townKey(String townName) {
+        return String.valueOf(townName).toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public int rankByPopulation(String townName) {
+        return delegate.rankByPopulation(townName);
+    }
+
+    @Override
+    public List<PopulatedPlace> topByPopulation(String state, int k) {
+        return delegate.topByPopulation(state, k);
+    }
+
+    @Override
+    public List<PopulatedPlace> findByPopulation(String state, int minPopulation, int maxPopulation) {
+        return delegate.findByPopulation(state, minPopulation, maxPopulation);
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    @Override
+    public Place getPlace(int index) {
+        return delegate.getPlace(index);
+    }
+
+    @Override
+    public void saveToFile(String fileName) throws IOException {
+        delegate.saveToFile(fileName);
+    }
+
+    @Override
+    public void loadFromFile(String fileName) throws IOException, ClassNotFoundException {
+        try {
+            delegate.loadFromFile(fileName);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void readZipCodes() throws IOException {
+        try {
+            delegate.readZipCodes();
+        } finally {
+            invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,578 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The ColumnarPlaceDatabase class is an implementation of the PlaceDB interface
+ * that stores places as a struct of arrays instead of one object per place.
+ * Zipcodes are stored as ints, towns and states as ids into a StringDictionary,
+ * and coordinates and population counts in primitive columns, so scans touch
+ * only the columns they need. The columns use the PlaceSnapshot encoding,
+ * which lets saveToFile and loadFromFile move them without building any objects.
+ *
+ * Place objects are materialized on demand by getPlace and the lookup methods.
+ * They are copies: changing one does not change the database.
+ */
+public class ColumnarPlaceDatabase implements PlaceDB {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size;
+    private byte[] kinds;
+    private int[] zipcodes;
+    private int[] towns;
+    private int[] states;
+    private int[] populations;
+    private int[] males;
+    private int[] females;
+    private double[] latitudes;
+    private double[] longitudes;
+    private StringDictionary strings;
+    private boolean isSorted;
+
+    private ZipcodeIndex zipIndex;
+    private TownIndex townIndex;
+    private ZipPrefixIndex prefixIndex;
+    private PopulationRank populationRank;
+    private DemographicRollup demographics;
+    // k-d tree over the located rows; null until the next spatial query after a change.
+    private SpatialIndex spatialIndex;
+    // Trigram index over the town names; null until the next town-name search after a change.
+    private TownSearchIndex townSearchIndex;
+
+    public ColumnarPlaceDatabase() {
+        kinds = new byte[INITIAL_CAPACITY];
+        zipcodes = new int[INITIAL_CAPACITY];
+        towns = new int[INITIAL_CAPACITY];
+        states = new int[INITIAL_CAPACITY];
+        populations = new int[INITIAL_CAPACITY];
+        males = new int[INITIAL_CAPACITY];
+        females = new int[INITIAL_CAPACITY];
+        latitudes = new double[INITIAL_CAPACITY];
+        longitudes = new double[INITIAL_CAPACITY];
+        strings = new StringDictionary();
+        rebuildIndexes();
+    }
+
+    /**
+     * Adds a place, unless its zipcode is already in the database,
+     * by appending one value to each column.
+     */
+    @Override
+    public void addPlace(Place newPlace) {
+        if (newPlace == null) {
+            System.out.println("newPlace cannot be null");
+            return;
+        }
+        if (newPlace.getZipcode() == null) {
+            System.out.println("Invalid zipcode");
+            return;
+        }
+        if (!zipIndex.putIfAbsent(newPlace.getZipcode(), size)) {
+            System.out.println("the place with the zipcode " + newPlace.getZipcode() + " already exist");
+            return;
+        }
+        indexRow(append(newPlace));
+        isSorted = false;
+    }
+
+    /**
+     * Adds many places in one pass, without printing anything. Duplicates are
+     * caught by the zipcode index as the columns are appended; the other
+     * indexes are brought up to date afterwards.
+     */
+    @Override
+    public int addAll(Collection<? extends Place> newPlaces) {
+        int first = size;
+        for (Place place : newPlaces) {
+            if (place != null && place.getZipcode() != null && zipIndex.putIfAbsent(place.getZipcode(), size)) {
+                append(place);
+            }
+        }
+        for (int row = first; row < size; row++) {
+            indexRow(row);
+        }
+        if (size > first) {
+            isSorted = false;
+        }
+        return size - first;
+    }
+
+    @Override
+    public Map<String, Place> lookupAll(Collection<String> zipcodes) {
+        Map<String, Place> found = new LinkedHashMap<>(zipcodes.size() * 2);
+        for (String zipcode : zipcodes) {
+            int row = zipIndex.get(zipcode);
+            if (row != ZipcodeIndex.NOT_FOUND) {
+                found.put(zipcode, getPlace(row));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Appends a place to the columns; the zipcode index already holds it.
+     *
+     * @return the row of the place
+     */
+    private int append(Place newPlace) {
+        if (size == kinds.length) {
+            grow();
+        }
+        int row = size++;
+        zipcodes[row] = PlaceSnapshot.encodeZipcode(newPlace.getZipcode(), strings);
+        towns[row] = PlaceSnapshot.id(newPlace.getTown(), strings);
+        states[row] = PlaceSnapshot.id(newPlace.getState(), strings);
+        kinds[row] = PlaceSnapshot.PLACE;
+        populations[row] = 0;
+        males[row] = 0;
+        females[row] = 0;
+        latitudes[row] = 0;
+        longitudes[row] = 0;
+        if (newPlace instanceof LocatedPlace) {
+            LocatedPlace located = (LocatedPlace) newPlace;
+            kinds[row] = PlaceSnapshot.LOCATED_PLACE;
+            latitudes[row] = located.getLatitude();
+            longitudes[row] = located.getLongitude();
+            spatialIndex = null;
+        }
+        if (newPlace instanceof PopulatedPlace) {
+            PopulatedPlace populated = (PopulatedPlace) newPlace;
+            kinds[row] = PlaceSnapshot.POPULATED_PLACE;
+            populations[row] = populated.getPopulation();
+            males[row] = populated.getMales();
+            females[row] = populated.getFemales();
+        }
+        return row;
+    }
+
+    @Override
+    public Place lookupByZipcode(String zipcode) {
+        if (zipcode == null || zipcode.isEmpty()) {
+            System.out.println("Invalid zipcode");
+            return null;
+        }
+        int row = zipIndex.get(zipcode);
+        return row == ZipcodeIndex.NOT_FOUND ? null : getPlace(row);
+    }
+
+    @Override
+    public void listAllPlaces(String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            System.out.println("Invalid prefix");
+            return;
+        }
+        System.out.println("Places with zipcode prefix " + prefix + ":");
+        Iterator<Place> found = placesWithPrefix(prefix).iterator();
+        boolean any = found.hasNext();
+        while (found.hasNext()) {
+            System.out.println(found.next());
+        }
+        if (!any) {
+            System.out.println("No places found with prefix " + prefix);
+        }
+    }
+
+    @Override
+    public Stream<Place> placesWithPrefix(String prefix) {
+        if (prefix == null) {
+            return Stream.empty();
+        }
+        return prefixIndex.rows(prefix).mapToObj(this::getPlace);
+    }
+
+    @Override
+    public double distance(String zip1, String zip2) {
+        return distance(zip1, zip2, DistanceUnit.MILES);
+    }
+
+    @Override
+    public double distance(String zip1, String zip2, DistanceUnit unit) {
+        int row1 = locatedRow(zip1);
+        int row2 = locatedRow(zip2);
+        if (row1 < 0 || row2 < 0) {
+            return -1;
+        }
+        double latitude1 = Math.toRadians(latitudes[row1]);
+        double latitude2 = Math.toRadians(latitudes[row2]);
+        return unit.getEarthRadius() * GeoDistance.centralAngle(
+                latitude1, Math.toRadians(longitudes[row1]), Math.cos(latitude1),
+                latitude2, Math.toRadians(longitudes[row2]), Math.cos(latitude2));
+    }
+
+    @Override
+    public double[] distances(String fromZip, List<String> toZips, DistanceUnit unit) {
+        return distanceMatrix(Collections.singletonList(fromZip), toZips, unit)[0];
+    }
+
+    @Override
+    public double[][] distanceMatrix(List<String> fromZips, List<String> toZips, DistanceUnit unit) {
+        int n = toZips.size();
+        double[] toLatitudes = new double[n];
+        double[] toLongitudes = new double[n];
+        double[] toCosLatitudes = new double[n];
+        for (int j = 0; j < n; j++) {
+            int row = locatedRow(toZips.get(j));
+            toLatitudes[j] = row < 0 ? Double.NaN : Math.toRadians(latitudes[row]);
+            toLongitudes[j] = row < 0 ? Double.NaN : Math.toRadians(longitudes[row]);
+            toCosLatitudes[j] = Math.cos(toLatitudes[j]);
+        }
+
+        double[][] matrix = new double[fromZips.size()][n];
+        for (int i = 0; i < matrix.length; i++) {
+            int row = locatedRow(fromZips.get(i));
+            if (row < 0) {
+                Arrays.fill(matrix[i], -1);
+                continue;
+            }
+            double latitude = Math.toRadians(latitudes[row]);
+            GeoDistance.distances(latitude, Math.toRadians(longitudes[row]), Math.cos(latitude),
+                    toLatitudes, toLongitudes, toCosLatitudes, matrix[i], unit);
+            for (int j = 0; j < n; j++) {
+                if (Double.isNaN(matrix[i][j])) {
+                    matrix[i][j] = -1;
+                }
+            }
+        }
+        return matrix;
+    }
+
+    @Override
+    public List<LocatedPlace> findNearest(double latitude, double longitude, int k) {
+        return locatedPlaces(spatialIndex().nearest(latitude, longitude, k));
+    }
+
+    @Override
+    public List<LocatedPlace> findWithinRadius(double latitude, double longitude, double radiusMiles) {
+        return locatedPlaces(spatialIndex().withinRadius(latitude, longitude, radiusMiles));
+    }
+
+    /**
+     * Sorts the rows by town name, ignoring case, by sorting a row permutation
+     * and then applying it to every column.
+     */
+    @Override
+    public void sortByTownName() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.parallelSort(order, Comparator.comparing(row -> town(row),
+                Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER)));
+        int[] permutation = new int[size];
+        for (int i = 0; i < size; i++) {
+            permutation[i] = order[i];
+        }
+        kinds = permute(kinds, permutation);
+        zipcodes = permute(zipcodes, permutation);
+        towns = permute(towns, permutation);
+        states = permute(states, permutation);
+        populations = permute(populations, permutation);
+        males = permute(males, permutation);
+        females = permute(females, permutation);
+        latitudes = permute(latitudes, permutation);
+        longitudes = permute(longitudes, permutation);
+        isSorted = true;
+        rebuildIndexes();
+    }
+
+    @Override
+    public int binarySearchByTownName(String townName, int low, int high) {
+        while (isSorted && low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = town(mid).compareToIgnoreCase(townName);
+            if (cmp == 0) {
+                return mid;
+            }
+            if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Scans the town column. The dictionary ids that match the name are found
+     * first, so the scan itself only compares ints.
+     */
+    @Override
+    public int sequentialSearchByTownName(String townName) {
+        boolean[] matches = new boolean[strings.size()];
+        boolean any = false;
+        for (int id = 0; id < matches.length; id++) {
+            matches[id] = strings.get(id).equalsIgnoreCase(townName);
+            any |= matches[id];
+        }
+        for (int row = 0; any && row < size; row++) {
+            if (towns[row] >= 0 && matches[towns[row]]) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public List<Place> lookupByTownName(String townName) {
+        int[] rows = townIndex.get(townName);
+        List<Place> found = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            found.add(getPlace(row));
+        }
+        return found;
+    }
+
+    @Override
+    public int rankByPopulation(String townName) {
+        return populationRank.rank(townName);
+    }
+
+    @Override
+    public List<PopulatedPlace> topByPopulation(String state, int k) {
+        return populatedPlaces(populationRank.top(state, k));
+    }
+
+    @Override
+    public List<PopulatedPlace> findByPopulation(String state, int minPopulation, int maxPopulation) {
+        return populatedPlaces(populationRank.between(state, minPopulation, maxPopulation));
+    }
+
+    private List<PopulatedPlace> populatedPlaces(int[] rows) {
+        List<PopulatedPlace> found = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            found.add((PopulatedPlace) getPlace(row));
+        }
+        return found;
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByState() {
+        return demographics.byState();
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByZipPrefix(int digits) {
+        return demographics.byZipPrefix(digits);
+    }
+
+    @Override
+    public List<TownMatch> completeTownName(String prefix, String state, int k) {
+        return townSearchIndex().complete(prefix, state, k);
+    }
+
+    @Override
+    public List<TownMatch> searchTownName(String query, String state, int k) {
+        return townSearchIndex().search(query, state, k);
+    }
+
+    private TownSearchIndex townSearchIndex() {
+        if (townSearchIndex == null) {
+            townSearchIndex = TownSearchIndex.of(this);
+        }
+        return townSearchIndex;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Materializes the place in a row.
+     *
+     * @param index the row
+     * @return a new Place, LocatedPlace or PopulatedPlace holding the row's values
+     */
+    @Override
+    public Place getPlace(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        String zipcode = PlaceSnapshot.decodeZipcode(zipcodes[index], strings);
+        String town = town(index);
+        String state = state(index);
+        switch (kinds[index]) {
+            case PlaceSnapshot.POPULATED_PLACE:
+                return new PopulatedPlace(zipcode, town, state, latitudes[index], longitudes[index],
+                        populations[index], males[index], females[index]);
+            case PlaceSnapshot.LOCATED_PLACE:
+                return new LocatedPlace(zipcode, town, state, latitudes[index], longitudes[index]);
+            default:
+                return new Place(zipcode, town, state);
+        }
+    }
+
+    /**
+     * Saves the columns as a PlaceSnapshot; no place objects are built.
+     */
+    @Override
+    public void saveToFile(String fileName) throws IOException {
+        new PlaceSnapshot(size, strings.toArray(), kinds, zipcodes, towns, states,
+                populations, males, females, latitudes, longitudes).save(fileName);
+    }
+
+    /**
+     * Loads a PlaceSnapshot by adopting its columns directly, or a file written
+     * with ObjectOutputStream by adding each of its places.
+     */
+    @Override
+    public void loadFromFile(String fileName) throws IOException, ClassNotFoundException {
+        if (PlaceSnapshot.isSnapshot(fileName)) {
+            PlaceSnapshot snapshot = PlaceSnapshot.load(fileName);
+            size = snapshot.getCount();
+            strings = new StringDictionary(snapshot.getDictionary());
+            kinds = snapshot.getKinds();
+            zipcodes = snapshot.getZipcodes();
+            towns = snapshot.getTowns();
+            states = snapshot.getStates();
+            populations = snapshot.getPopulations();
+            males = snapshot.getMales();
+            females = snapshot.getFemales();
+            latitudes = snapshot.getLatitudes();
+            longitudes = snapshot.getLongitudes();
+            isSorted = false;
+            rebuildIndexes();
+        } else {
+            List<Place> places = PlaceSnapshot.readLegacy(fileName);
+            size = 0;
+            strings = new StringDictionary();
+            rebuildIndexes();
+            for (Place place : places) {
+                addPlace(place);
+            }
+        }
+    }
+
+    @Override
+    public void readZipCodes() throws IOException {
+        readZipCodes(false);
+    }
+
+    /**
+     * Loads the CSV files, optionally parsing them in parallel.
+     * See ZipcodeFileParser.readZipCodeFiles.
+     *
+     * @param parallel whether to parse the files on all cores
+     * @throws IOException if either file cannot be read
+     */
+    public void readZipCodes(boolean parallel) throws IOException {
+        for (Place place : ZipcodeFileParser.readZipCodeFiles("uszipcodes.csv", "ziplocs.csv", parallel)) {
+            addPlace(place);
+        }
+    }
+
+    /**
+     * @return the zipcode's row if it holds a location, otherwise -1
+     */
+    private int locatedRow(String zipcode) {
+        int row = zipIndex.get(zipcode);
+        return row == ZipcodeIndex.NOT_FOUND || kinds[row] == PlaceSnapshot.PLACE ? -1 : row;
+    }
+
+    private String town(int row) {
+        return towns[row] < 0 ? null : strings.get(towns[row]);
+    }
+
+    private String state(int row) {
+        return states[row] < 0 ? null : strings.get(states[row]);
+    }
+
+    private List<LocatedPlace> locatedPlaces(int[] rows) {
+        List<LocatedPlace> found = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            found.add((LocatedPlace) getPlace(row));
+        }
+        return found;
+    }
+
+    private SpatialIndex spatialIndex() {
+        if (spatialIndex == null) {
+            double[] locatedLatitudes = new double[size];
+            double[] locatedLongitudes = new double[size];
+            int[] rows = new int[size];
+            int count = 0;
+            for (int row = 0; row < size; row++) {
+                if (kinds[row] != PlaceSnapshot.PLACE) {
+                    locatedLatitudes[count] = latitudes[row];
+                    locatedLongitudes[count] = longitudes[row];
+                    rows[count++] = row;
+                }
+            }
+            spatialIndex = new SpatialIndex(locatedLatitudes, locatedLongitudes, rows, count);
+        }
+        return spatialIndex;
+    }
+
+    private void indexRow(int row) {
+        String zipcode = PlaceSnapshot.decodeZipcode(zipcodes[row], strings);
+        townSearchIndex = null;
+        townIndex.add(town(row), row);
+        prefixIndex.add(zipcode, row);
+        if (kinds[row] == PlaceSnapshot.POPULATED_PLACE) {
+            populationRank.add(town(row), state(row), populations[row], row);
+            demographics.add(zipcode, state(row), populations[row], males[row], females[row]);
+        }
+    }
+
+    /**
+     * Rebuilds the indexes from scratch after the columns have been replaced or reordered.
+     */
+    private void rebuildIndexes() {
+        zipIndex = new ZipcodeIndex(size);
+        townIndex = new TownIndex();
+        prefixIndex = new ZipPrefixIndex();
+        populationRank = new PopulationRank();
+        demographics = new DemographicRollup();
+        spatialIndex = null;
+        townSearchIndex = null;
+        for (int row = 0; row < size; row++) {
+            zipIndex.putIfAbsent(PlaceSnapshot.decodeZipcode(zipcodes[row], strings), row);
+            indexRow(row);
+        }
+    }
+
+    private void grow() {
+        int capacity = Math.max(INITIAL_CAPACITY, kinds.length * 2);
+        kinds = Arrays.copyOf(kinds, capacity);
+        zipcodes = Arrays.copyOf(zipcodes, capacity);
+        towns = Arrays.copyOf(towns, capacity);
+        states = Arrays.copyOf(states, capacity);
+        populations = Arrays.copyOf(populations, capacity);
+        males = Arrays.copyOf(males, capacity);
+        females = Arrays.copyOf(females, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+    }
+
+    private static byte[] permute(byte[] column, int[] permutation) {
+        byte[] result = new byte[Math.max(column.length, INITIAL_CAPACITY)];
+        for (int i = 0; i < permutation.length; i++) {
+            result[i] = column[permutation[i]];
+        }
+        return result;
+    }
+
+    private static int[] permute(int[] column, int[] permutation) {
+        int[] result = new int[Math.max(column.length, INITIAL_CAPACITY)];
+        for (int i = 0; i < permutation.length; i++) {
+            result[i] = column[permutation[i]];
+        }
+        return result;
+    }
+
+    private static double[] permute(double[] column, int[] permutation) {
+        double[] result = new double[Math.max(column.length, INITIAL_CAPACITY)];
+        for (int i = 0; i < permutation.length; i++) {
+            result[i] = column[permutation[i]];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,301 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * The ConcurrentPlaceDatabase class is a thread-safe implementation of the
+ * PlaceDB interface for many readers and occasional writers.
+ *
+ * It publishes immutable snapshots: the current MyPlaceDatabase is held in a
+ * volatile field and is never changed once published. Queries read that field
+ * once and run against the snapshot without taking any lock. Writes are
+ * serialized by a lock; the writer holding it copies the current snapshot,
+ * applies its own change and every change queued by writers waiting for the
+ * lock, and publishes the copy in a single volatile write. Concurrent writers
+ * therefore share one copy, the way PlaceLog writers share one fsync.
+ *
+ * Copying clones the index arrays and maps rather than rebuilding them, and
+ * the k-d tree and trigram index, which are immutable, are shared with the
+ * previous snapshot until a change invalidates them; the first query that
+ * needs one afterwards builds it. A copy still costs O(n), so a single thread
+ * adding many places should use addAll, readZipCodes or loadFromFile.
+ *
+ * Every call sees one consistent snapshot, but two calls may see different
+ * ones: getSize followed by getPlace can observe a sort in between.
+ */
+public class ConcurrentPlaceDatabase implements PlaceDB {
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile MyPlaceDatabase current;
+    // Changes waiting for the next copy, oldest first; guarded by its own monitor.
+    private final ArrayDeque<Write> pending = new ArrayDeque<>();
+
+    private interface Change {
+        int apply(MyPlaceDatabase next);
+    }
+
+    /**
+     * A queued change and, once applied, its result. The fields are written and
+     * read with the write lock held.
+     */
+    private static final class Write {
+        final Change change;
+        boolean applied;
+        int result;
+        RuntimeException failure;
+
+        Write(Change change) {
+            this.change = change;
+        }
+    }
+
+    public ConcurrentPlaceDatabase() {
+        publish(new MyPlaceDatabase());
+    }
+
+    @Override
+    public Place lookupByZipcode(String zipcode) {
+        return current.lookupByZipcode(zipcode);
+    }
+
+    @Override
+    public void addPlace(Place newPlace) {
+        write(next -> {
+            next.addPlace(newPlace);
+            return 0;
+        });
+    }
+
+    /**
+     * Adds the whole batch to one copy of the current snapshot,
+     * so readers see either none or all of it.
+     */
+    @Override
+    public int addAll(Collection<? extends Place> newPlaces) {
+        return write(next -> next.addAll(newPlaces));
+    }
+
+    /**
+     * Looks every zipcode up in the same snapshot.
+     */
+    @Override
+    public Map<String, Place> lookupAll(Collection<String> zipcodes) {
+        return current.lookupAll(zipcodes);
+    }
+
+    @Override
+    public void listAllPlaces(String prefix) {
+        current.listAllPlaces(prefix);
+    }
+
+    @Override
+    public Stream<Place> placesWithPrefix(String prefix) {
+        return current.placesWithPrefix(prefix);
+    }
+
+    @Override
+    public double distance(String zip1, String zip2) {
+        return current.distance(zip1, zip2);
+    }
+
+    @Override
+    public double distance(String zip1, String zip2, DistanceUnit unit) {
+        return current.distance(zip1, zip2, unit);
+    }
+
+    @Override
+    public double[] distances(String fromZip, List<String> toZips, DistanceUnit unit) {
+        return current.distances(fromZip, toZips, unit);
+    }
+
+    @Override
+    public double[][] distanceMatrix(List<String> fromZips, List<String> toZips, DistanceUnit unit) {
+        return current.distanceMatrix(fromZips, toZips, unit);
+    }
+
+    @Override
+    public List<LocatedPlace> findNearest(double latitude, double longitude, int k) {
+        return current.findNearest(latitude, longitude, k);
+    }
+
+    @Override
+    public List<LocatedPlace> findWithinRadius(double latitude, double longitude, double radiusMiles) {
+        return current.findWithinRadius(latitude, longitude, radiusMiles);
+    }
+
+    @Override
+    public void sortByTownName() {
+        write(next -> {
+            next.sortByTownName();
+            return 0;
+        });
+    }
+
+    @Override
+    public int binarySearchByTownName(String townName, int low, int high) {
+        return current.binarySearchByTownName(townName, low, high);
+    }
+
+    @Override
+    public int rankByPopulation(String townName) {
+        return current.rankByPopulation(townName);
+    }
+
+    @Override
+    public List<PopulatedPlace> topByPopulation(String state, int k) {
+        return current.topByPopulation(state, k);
+    }
+
+    @Override
+    public List<PopulatedPlace> findByPopulation(String state, int minPopulation, int maxPopulation) {
+        return current.findByPopulation(state, minPopulation, maxPopulation);
+    }
+
+    @Override
+    public int getSize() {
+        return current.getSize();
+    }
+
+    @Override
+    public Place getPlace(int index) {
+        return current.getPlace(index);
+    }
+
+    /**
+     * Saves the current snapshot; writes made meanwhile are not included.
+     */
+    @Override
+    public void saveToFile(String fileName) throws IOException {
+        current.saveToFile(fileName);
+    }
+
+    /**
+     * Loads the file into a new snapshot and publishes it, replacing every place.
+     */
+    @Override
+    public void loadFromFile(String fileName) throws IOException, ClassNotFoundException {
+        writeLock.lock();
+        try {
+            MyPlaceDatabase next = new MyPlaceDatabase();
+            next.loadFromFile(fileName);
+            publish(next);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Adds the places in the CSV files to a copy of the current snapshot
+     * and publishes it once, at the end.
+     */
+    @Override
+    public void readZipCodes() throws IOException {
+        writeLock.lock();
+        try {
+            MyPlaceDatabase next = new MyPlaceDatabase(current);
+            next.readZipCodes();
+            publish(next);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int sequentialSearchByTownName(String townName) {
+        return current.sequentialSearchByTownName(townName);
+    }
+
+    @Override
+    public List<Place> lookupByTownName(String townName) {
+        return current.lookupByTownName(townName);
+    }
+
+    @Override
+    public List<TownMatch> completeTownName(String prefix, String state, int k) {
+        return current.completeTownName(prefix, state, k);
+    }
+
+    @Override
+    public List<TownMatch> searchTownName(String query, String state, int k) {
+        return current.searchTownName(query, state, k);
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByState() {
+        return current.populationByState();
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByZipPrefix(int digits) {
+        return current.populationByZipPrefix(digits);
+    }
+
+    @Override
+    public PopulationStats populationWithinRadius(double latitude, double longitude, double radiusMiles) {
+        return current.populationWithinRadius(latitude, longitude, radiusMiles);
+    }
+
+    /**
+     * Queues a change and waits until it is in a published snapshot. The first
+     * writer to get the lock applies every queued change to one copy; writers
+     * whose change it took along find it applied when they get the lock.
+     *
+     * @return what the change returned
+     */
+    private int write(Change change) {
+        Write write = new Write(change);
+        synchronized (pending) {
+            pending.add(write);
+        }
+        writeLock.lock();
+        try {
+            if (!write.applied) {
+                List<Write> batch;
+                synchronized (pending) {
+                    batch = new ArrayList<>(pending);
+                    pending.clear();
+                }
+                RuntimeException failure = null;
+                try {
+                    MyPlaceDatabase next = new MyPlaceDatabase(current);
+                    for (Write queued : batch) {
+                        try {
+                            queued.result = queued.change.apply(next);
+                        } catch (RuntimeException e) {
+                            queued.failure = e;
+                        }
+                    }
+                    publish(next);
+                } catch (RuntimeException e) {
+                    failure = e;
+                    throw e;
+                } finally {
+                    for (Write queued : batch) {
+                        queued.applied = true;
+                        if (failure != null && queued.failure == null) {
+                            queued.failure = failure;
+                        }
+                    }
+                }
+            }
+            if (write.failure != null) {
+                throw write.failure;
+            }
+            return write.result;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Makes a snapshot visible to readers. Called with the write lock held, or by the constructor.
+     */
+    private void publish(MyPlaceDatabase next) {
+        next.prepareForReading();
+        current = next;
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maintained population totals of the populated places, grouped by state
+ * and by zipcode prefix of 1 to MAX_PREFIX_DIGITS digits. Adding a place
+ * updates one running total per grouping, so a dashboard query costs one
+ * PopulationStats per group instead of a scan of every place.
+ *
+ * The totals do not depend on the order of the places, so sorting a
+ * database leaves them alone. Places are never removed, which is what lets
+ * the minimum and maximum be kept as running values.
+ */
+public class DemographicRollup {
+    public static final int MAX_PREFIX_DIGITS = 3;
+
+    private final Map<String, Group> byState = new HashMap<>();
+    // byPrefix.get(digits - 1) holds the groups of the zipcode prefixes of that many digits.
+    private final List<Map<String, Group>> byPrefix = new ArrayList<>(MAX_PREFIX_DIGITS);
+
+    /**
+     * Running totals of one group.
+     */
+    private static final class Group {
+        int places;
+        long population;
+        long males;
+        long females;
+        int minPopulation;
+        int maxPopulation;
+        String smallestZipcode;
+        String largestZipcode;
+
+        Group copy() {
+            Group copy = new Group();
+            copy.places = places;
+            copy.population = population;
+            copy.males = males;
+            copy.females = females;
+            copy.minPopulation = minPopulation;
+            copy.maxPopulation = maxPopulation;
+            copy.smallestZipcode = smallestZipcode;
+            copy.largestZipcode = largestZipcode;
+            return copy;
+        }
+
+        void add(String zipcode, int population, int males, int females) {
+            if (places == 0 || population < minPopulation) {
+                minPopulation = population;
+                smallestZipcode = zipcode;
+            }
+            if (places == 0 || population > maxPopulation) {
+                maxPopulation = population;
+                largestZipcode = zipcode;
+            }
+            places++;
+            this.population += population;
+            this.males += males;
+            this.females += females;
+        }
+
+        PopulationStats toStats(String key) {
+            return new PopulationStats(key, places, population, males, females,
+                    minPopulation, maxPopulation, smallestZipcode, largestZipcode);
+        }
+    }
+
+    public DemographicRollup() {
+        for (int i = 0; i < MAX_PREFIX_DIGITS; i++) {
+            byPrefix.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Copy constructor; the copy shares nothing with the original.
+     *
+     * @param other the rollup to copy
+     */
+    public DemographicRollup(DemographicRollup other) {
+        other.byState.forEach((state, group) -> byState.put(state, group.copy()));
+        for (int i = 0; i < MAX_PREFIX_DIGITS; i++) {
+            Map<String, Group> copies = new HashMap<>();
+            other.byPrefix.get(i).forEach((prefix, group) -> copies.put(prefix, group.copy()));
+            byPrefix.add(copies);
+        }
+    }
+
+    /**
+     * Adds a place; anything but a PopulatedPlace is ignored.
+     *
+     * @param place the place
+     */
+    public void add(Place place) {
+        if (place instanceof PopulatedPlace) {
+            PopulatedPlace populated = (PopulatedPlace) place;
+            add(place.getZipcode(), place.getState(), populated.getPopulation(),
+                    populated.getMales(), populated.getFemales());
+        }
+    }
+
+    /**
+     * Adds one populated place.
+     *
+     * @param zipcode    the zipcode, grouped by prefix unless null
+     * @param state      the state, grouped by state unless null
+     * @param population the population
+     * @param males      the number of males
+     * @param females    the number of females
+     */
+    public void add(String zipcode, String state, int population, int males, int females) {
+        if (state != null) {
+            byState.computeIfAbsent(state, s -> new Group()).add(zipcode, population, males, females);
+        }
+        if (zipcode != null) {
+            for (int digits = 1; digits <= Math.min(MAX_PREFIX_DIGITS, zipcode.length()); digits++) {
+                byPrefix.get(digits - 1).computeIfAbsent(zipcode.substring(0, digits), p -> new Group())
+                        .add(zipcode, population, males, females);
+            }
+        }
+    }
+
+    /**
+     * @return the totals of each state, in state order
+     */
+    public Map<String, PopulationStats> byState() {
+        return snapshot(byState);
+    }
+
+    /**
+     * @param digits the length of the prefix, 1 to MAX_PREFIX_DIGITS
+     * @return the totals of each zipcode prefix of that length, in prefix order
+     * @throws IllegalArgumentException if digits is out of range
+     */
+    public Map<String, PopulationStats> byZipPrefix(int digits) {
+        if (digits < 1 || digits > MAX_PREFIX_DIGITS) {
+            throw new IllegalArgumentException("zipcode prefixes are rolled up for 1 to "
+                    + MAX_PREFIX_DIGITS + " digits, not " + digits);
+        }
+        return snapshot(byPrefix.get(digits - 1));
+    }
+
+    /**
+     * Totals an arbitrary collection of places, such as the result of a
+     * radius search, without keeping anything.
+     *
+     * @param key    the key of the result
+     * @param places the places; anything but a PopulatedPlace is ignored
+     * @return their totals
+     */
+    public static PopulationStats aggregate(String key, Collection<? extends Place> places) {
+        Group group = new Group();
+        for (Place place : places) {
+            if (place instanceof PopulatedPlace) {
+                PopulatedPlace populated = (PopulatedPlace) place;
+                group.add(place.getZipcode(), populated.getPopulation(), populated.getMales(), populated.getFemales());
+            }
+        }
+        return group.toStats(key);
+    }
+
+    private static Map<String, PopulationStats> snapshot(Map<String, Group> groups) {
+        TreeMap<String, PopulationStats> stats = new TreeMap<>();
+        for (Map.Entry<String, Group> entry : groups.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().toStats(entry.getKey()));
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * Units for distances along the surface of the Earth.
+ */
+public enum DistanceUnit {
+    MILES(3958.8),
+    KILOMETERS(6371.0);
+
+    private final double earthRadius;
+
+    DistanceUnit(double earthRadius) {
+        this.earthRadius = earthRadius;
+    }
+
+    /**
+     * Returns the mean radius of the Earth in this unit.
+     *
+     * @return the radius
+     */
+    public double getEarthRadius() {
+        return earthRadius;
+    }
+}
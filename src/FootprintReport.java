@@ -0,0 +1,206 @@
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Heap footprint of a graph of objects, per class, in the style of JOL's
+ * GraphLayout.toFootprint(). Every object reachable from the roots is
+ * counted once, however many references lead to it, so a String shared by
+ * many places is counted once.
+ *
+ * Sizes are computed, not measured, for a 64-bit JVM with compressed
+ * references and class pointers (heaps under 32 GB): a 12 byte object
+ * header, 4 byte references, 16 byte array headers and objects padded to a
+ * multiple of 8 bytes. A String is 24 bytes plus its byte[], one byte per
+ * character when every character fits in Latin-1 and two otherwise.
+ * References are followed through the fields of this program's classes and
+ * through object arrays; other JDK objects are counted at their shallow size
+ * and not followed, since their fields cannot be read without opening java.base.
+ */
+public class FootprintReport {
+    private static final int HEADER_BYTES = 12;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+    private static final int STRING_BYTES = 24;
+
+    private final Map<String, long[]> byClass = new HashMap<>(); // class name to {count, bytes}
+    private final Map<Class<?>, List<Field>> fieldsByClass = new HashMap<>();
+    private long count;
+    private long bytes;
+
+    private FootprintReport() {
+    }
+
+    /**
+     * Measures the roots and everything reachable from them.
+     *
+     * @param roots the objects to measure, e.g. the places of a database
+     * @return the footprint
+     */
+    public static FootprintReport of(Iterable<?> roots) {
+        FootprintReport report = new FootprintReport();
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> pending = new ArrayDeque<>();
+        for (Object root : roots) {
+            if (root != null && seen.add(root)) {
+                pending.push(root);
+            }
+        }
+        while (!pending.isEmpty()) {
+            for (Object reachable : report.visit(pending.pop())) {
+                if (reachable != null && seen.add(reachable)) {
+                    pending.push(reachable);
+                }
+            }
+        }
+        return report;
+    }
+
+    /**
+     * @return the number of objects counted
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the bytes of every object counted
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @param type the class
+     * @return the number of objects of exactly that class
+     */
+    public long getCount(Class<?> type) {
+        return byClass.getOrDefault(type.getName(), new long[2])[0];
+    }
+
+    /**
+     * Counts one object and returns the objects it refers to.
+     */
+    private List<Object> visit(Object object) {
+        Class<?> type = object.getClass();
+        if (object instanceof String) {
+            String string = (String) object;
+            add(type, STRING_BYTES);
+            add(byte[].class, align(ARRAY_HEADER_BYTES + (long) string.length() * (isLatin1(string) ? 1 : 2)));
+            return List.of();
+        }
+        if (type.isArray()) {
+            Class<?> component = type.getComponentType();
+            int length = Array.getLength(object);
+            add(type, align(ARRAY_HEADER_BYTES + (long) length * size(component)));
+            if (component.isPrimitive()) {
+                return List.of();
+            }
+            List<Object> elements = new ArrayList<>(length);
+            Collections.addAll(elements, (Object[]) object);
+            return elements;
+        }
+        List<Field> fields = fields(type);
+        long shallow = HEADER_BYTES;
+        for (Field field : fields) {
+            shallow += size(field.getType());
+        }
+        add(type, align(shallow));
+        if (!type.getModule().equals(FootprintReport.class.getModule())) {
+            return List.of();
+        }
+        List<Object> references = new ArrayList<>();
+        for (Field field : fields) {
+            if (!field.getType().isPrimitive()) {
+                try {
+                    references.add(field.get(object));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e); // Cannot happen: fields() made it accessible.
+                }
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Returns the instance fields of a class and its superclasses, accessible if they belong to this program.
+     */
+    private List<Field> fields(Class<?> type) {
+        return fieldsByClass.computeIfAbsent(type, t -> {
+            List<Field> fields = new ArrayList<>();
+            boolean ours = t.getModule().equals(FootprintReport.class.getModule());
+            for (Class<?> c = t; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        if (ours) {
+                            field.setAccessible(true);
+                        }
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields;
+        });
+    }
+
+    private void add(Class<?> type, long size) {
+        long[] totals = byClass.computeIfAbsent(type.getName(), t -> new long[2]);
+        totals[0]++;
+        totals[1] += size;
+        count++;
+        bytes += size;
+    }
+
+    private static boolean isLatin1(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int size(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE_BYTES;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * @return a table of count, average size and total bytes per class, largest total first
+     */
+    @Override
+    public String toString() {
+        List<Map.Entry<String, long[]>> rows = new ArrayList<>(byClass.entrySet());
+        rows.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+        StringBuilder table = new StringBuilder(String.format("%12s %10s %14s   %s%n", "COUNT", "AVG", "SUM", "DESCRIPTION"));
+        for (Map.Entry<String, long[]> row : rows) {
+            long[] totals = row.getValue();
+            table.append(String.format("%,12d %,10d %,14d   %s%n", totals[0], totals[1] / totals[0], totals[1], row.getKey()));
+        }
+        return table.append(String.format("%,12d %10s %,14d   (total)%n", count, "", bytes)).toString();
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Great-circle distance calculations using the haversine formula.
+ * The inputs are latitudes and longitudes already converted to radians,
+ * together with the cosine of the latitude, which LocatedPlace keeps
+ * precomputed; the batch method works on primitive arrays of those values
+ * so a one-to-many distance is a single tight loop.
+ */
+public class GeoDistance {
+
+    private GeoDistance() {
+    }
+
+    /**
+     * Returns the angle between two points as seen from the centre of the Earth.
+     *
+     * @param latitude1    latitude of the first point, in radians
+     * @param longitude1   longitude of the first point, in radians
+     * @param cosLatitude1 cosine of latitude1
+     * @param latitude2    latitude of the second point, in radians
+     * @param longitude2   longitude of the second point, in radians
+     * @param cosLatitude2 cosine of latitude2
+     * @return the central angle, in radians
+     */
+    public static double centralAngle(double latitude1, double longitude1, double cosLatitude1,
+                                      double latitude2, double longitude2, double cosLatitude2) {
+        double sinHalfDLat = Math.sin((latitude2 - latitude1) / 2);
+        double sinHalfDLon = Math.sin((longitude2 - longitude1) / 2);
+        double h = sinHalfDLat * sinHalfDLat + cosLatitude1 * cosLatitude2 * sinHalfDLon * sinHalfDLon;
+        return 2 * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * Returns the great-circle distance between two located places.
+     *
+     * @param place1 the first place
+     * @param place2 the second place
+     * @param unit   the unit of the result
+     * @return the distance
+     */
+    public static double distance(LocatedPlace place1, LocatedPlace place2, DistanceUnit unit) {
+        return unit.getEarthRadius() * centralAngle(
+                place1.getLatitudeRadians(), place1.getLongitudeRadians(), place1.getCosLatitude(),
+                place2.getLatitudeRadians(), place2.getLongitudeRadians(), place2.getCosLatitude());
+    }
+
+    /**
+     * Computes the distances from one point to many. A target whose latitude is
+     * NaN gets a NaN distance, so callers can mark missing targets without
+     * branching inside the loop.
+     *
+     * @param latitude     latitude of the origin, in radians
+     * @param longitude    longitude of the origin, in radians
+     * @param cosLatitude  cosine of the origin latitude
+     * @param latitudes    target latitudes, in radians
+     * @param longitudes   target longitudes, in radians
+     * @param cosLatitudes cosines of the target latitudes
+     * @param distances    receives the distance to each target
+     * @param unit         the unit of the results
+     */
+    public static void distances(double latitude, double longitude, double cosLatitude,
+                                 double[] latitudes, double[] longitudes, double[] cosLatitudes,
+                                 double[] distances, DistanceUnit unit) {
+        double radius = unit.getEarthRadius();
+        for (int i = 0; i < distances.length; i++) {
+            double sinHalfDLat = Math.sin((latitudes[i] - latitude) / 2);
+            double sinHalfDLon = Math.sin((longitudes[i] - longitude) / 2);
+            double h = sinHalfDLat * sinHalfDLat + cosLatitude * cosLatitudes[i] * sinHalfDLon * sinHalfDLon;
+            distances[i] = 2 * radius * Math.asin(Math.min(1, Math.sqrt(h)));
+        }
+    }
+}
@@ -0,0 +1,594 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The InstrumentedPlaceDB class is a PlaceDB decorator that records, for every
+ * method of the database it wraps, the number of calls and a latency
+ * histogram, and for the lookups how many found something. The metrics can be
+ * read through getMetrics, registered as JMX MBeans, or printed periodically.
+ *
+ * Queries are timed one call in sampleInterval (see OperationMetrics), which
+ * keeps the cost on the lookupByZipcode path to a LongAdder
+ * increment and a random number for most calls. Loads, saves, sorts and batch inserts are
+ * timed on every call. A call that throws counts as a failure, not as a
+ * miss. It is as thread-safe as the database it wraps.
+ */
+public class InstrumentedPlaceDB implements PlaceDB {
+    public static final int DEFAULT_SAMPLE_INTERVAL = 256;
+
+    private final PlaceDB delegate;
+    private final Map<String, OperationMetrics> metrics = new LinkedHashMap<>();
+    private final List<ObjectName> registered = new ArrayList<>();
+    private ScheduledExecutorService reporter;
+
+    private final OperationMetrics lookupByZipcode;
+    private final OperationMetrics lookupAll;
+    private final OperationMetrics addPlace;
+    private final OperationMetrics addAll;
+    private final OperationMetrics listAllPlaces;
+    private final OperationMetrics placesWithPrefix;
+    private final OperationMetrics distance;
+    private final OperationMetrics distances;
+    private final OperationMetrics distanceMatrix;
+    private final OperationMetrics findNearest;
+    private final OperationMetrics findWithinRadius;
+    private final OperationMetrics sortByTownName;
+    private final OperationMetrics binarySearchByTownName;
+    private final OperationMetrics sequentialSearchByTownName;
+    private final OperationMetrics lookupByTownName;
+    private final OperationMetrics completeTownName;
+    private final OperationMetrics searchTownName;
+    private final OperationMetrics rankByPopulation;
+    private final OperationMetrics topByPopulation;
+    private final OperationMetrics findByPopulation;
+    private final OperationMetrics populationByState;
+    private final OperationMetrics populationByZipPrefix;
+    private final OperationMetrics populationWithinRadius;
+    private final OperationMetrics getPlace;
+    private final OperationMetrics saveToFile;
+    private final OperationMetrics loadFromFile;
+    private final OperationMetrics readZipCodes;
+
+    public InstrumentedPlaceDB(PlaceDB delegate) {
+        this(delegate, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param delegate       the database to instrument
+     * @param sampleInterval time one query in this many; 1 times every call
+     */
+    public InstrumentedPlaceDB(PlaceDB delegate, int sampleInterval) {
+        this.delegate = delegate;
+        lookupByZipcode = operation("lookupByZipcode", sampleInterval);
+        lookupAll = operation("lookupAll", sampleInterval);
+        addPlace = operation("addPlace", sampleInterval);
+        addAll = operation("addAll", 1);
+        listAllPlaces = operation("listAllPlaces", sampleInterval);
+        placesWithPrefix = operation("placesWithPrefix", sampleInterval);
+        distance = operation("distance", sampleInterval);
+        distances = operation("distances", sampleInterval);
+        distanceMatrix = operation("distanceMatrix", sampleInterval);
+        findNearest = operation("findNearest", sampleInterval);
+        findWithinRadius = operation("findWithinRadius", sampleInterval);
+        sortByTownName = operation("sortByTownName", 1);
+        binarySearchByTownName = operation("binarySearchByTownName", sampleInterval);
+        sequentialSearchByTownName = operation("sequentialSearchByTownName", sampleInterval);
+        lookupByTownName = operation("lookupByTownName", sampleInterval);
+        completeTownName = operation("completeTownName", sampleInterval);
+        searchTownName = operation("searchTownName", sampleInterval);
+        rankByPopulation = operation("rankByPopulation", sampleInterval);
+        topByPopulation = operation("topByPopulation", sampleInterval);
+        findByPopulation = operation("findByPopulation", sampleInterval);
+        populationByState = operation("populationByState", sampleInterval);
+        populationByZipPrefix = operation("populationByZipPrefix", sampleInterval);
+        populationWithinRadius = operation("populationWithinRadius", sampleInterval);
+        getPlace = operation("getPlace", sampleInterval);
+        saveToFile = operation("saveToFile", 1);
+        loadFromFile = operation("loadFromFile", 1);
+        readZipCodes = operation("readZipCodes", 1);
+    }
+
+    private OperationMetrics operation(String name, int sampleInterval) {
+        OperationMetrics operation = new OperationMetrics(name, sampleInterval);
+        metrics.put(name, operation);
+        return operation;
+    }
+
+    /**
+     * @return the metrics of every operation, keyed by method name
+     */
+    public Map<String, OperationMetrics> getMetrics() {
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * Registers one MBean per operation with the platform MBean server, named
+     * PlaceDB:database=databaseName,operation=methodName.
+     *
+     * @param databaseName distinguishes this database from others in the same JVM
+     * @throws JMException if the names are taken or invalid
+     */
+    public synchronized void registerMBeans(String databaseName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (OperationMetrics operation : metrics.values()) {
+            ObjectName name = new ObjectName("PlaceDB:database=" + ObjectName.quote(databaseName)
+                    + ",operation=" + operation.getName());
+            server.registerMBean(operation, name);
+            registered.add(name);
+        }
+    }
+
+    /**
+     * Unregisters the MBeans registered by registerMBeans.
+     *
+     * @throws JMException if an MBean cannot be unregistered
+     */
+    public synchronized void unregisterMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * Prints the report to a stream at a fixed rate, from a daemon thread,
+     * until stopReporting is called.
+     *
+     * @param period the time between reports
+     * @param unit   the unit of period
+     * @param out    where to print
+     */
+    public synchronized void startReporting(long period, TimeUnit unit, PrintStream out) {
+        stopReporting();
+        reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "PlaceDB metrics reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> out.print(report()), period, period, unit);
+    }
+
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    /**
+     * @return a text table of the operations that have been called, latencies in microseconds
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format("%-28s %10s %8s %8s %9s %9s %9s %9s %10s%n",
+                "operation", "calls", "failed", "hit %", "mean", "p50", "p99", "p99.9", "max"));
+        for (OperationMetrics operation : metrics.values()) {
+            if (operation.getCalls() == 0) {
+                continue;
+            }
+            double hitRate = operation.getHitRate();
+            report.append(String.format("%-28s %10d %8d %8s %9.1f %9.1f %9.1f %9.1f %10.1f%n",
+                    operation.getName(), operation.getCalls(), operation.getFailures(),
+                    Double.isNaN(hitRate) ? "-" : String.format("%.1f", hitRate * 100),
+                    operation.getMeanMicros(), operation.getP50Micros(), operation.getP99Micros(),
+                    operation.getP999Micros(), operation.getMaxMicros()));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public Place lookupByZipcode(String zipcode) {
+        long start = lookupByZipcode.start();
+        try {
+            Place place = delegate.lookupByZipcode(zipcode);
+            lookupByZipcode.recordFound(place != null);
+            return place;
+        } catch (RuntimeException e) {
+            lookupByZipcode.recordFailure();
+            throw e;
+        } finally {
+            lookupByZipcode.end(start);
+        }
+    }
+
+    /**
+     * Counts one hit per zipcode found and one miss per distinct zipcode not
+     * found; a zipcode given twice is looked up once, and null or empty ones,
+     * which lookupAll skips, are not looked up at all.
+     */
+    @Override
+    public Map<String, Place> lookupAll(Collection<String> zipcodes) {
+        long start = lookupAll.start();
+        try {
+            Map<String, Place> found = delegate.lookupAll(zipcodes);
+            long looked = zipcodes.stream().filter(zipcode -> zipcode != null && !zipcode.isEmpty()).distinct().count();
+            lookupAll.recordFound(found.size(), looked - found.size());
+            return found;
+        } catch (RuntimeException e) {
+            lookupAll.recordFailure();
+            throw e;
+        } finally {
+            lookupAll.end(start);
+        }
+    }
+
+    @Override
+    public void addPlace(Place newPlace) {
+        long start = addPlace.start();
+        try {
+            delegate.addPlace(newPlace);
+        } catch (RuntimeException e) {
+            addPlace.recordFailure();
+            throw e;
+        } finally {
+            addPlace.end(start);
+        }
+    }
+
+    @Override
+    public int addAll(Collection<? extends Place> newPlaces) {
+        long start = addAll.start();
+        try {
+            return delegate.addAll(newPlaces);
+        } catch (RuntimeException e) {
+            addAll.recordFailure();
+            throw e;
+        } finally {
+            addAll.end(start);
+        }
+    }
+
+    @Override
+    public void listAllPlaces(String prefix) {
+        long start = listAllPlaces.start();
+        try {
+            delegate.listAllPlaces(prefix);
+        } catch (RuntimeException e) {
+            listAllPlaces.recordFailure();
+            throw e;
+        } finally {
+            listAllPlaces.end(start);
+        }
+    }
+
+    /**
+     * Times creating the stream, not consuming it.
+     */
+    @Override
+    public Stream<Place> placesWithPrefix(String prefix) {
+        long start = placesWithPrefix.start();
+        try {
+            return delegate.placesWithPrefix(prefix);
+        } catch (RuntimeException e) {
+            placesWithPrefix.recordFailure();
+            throw e;
+        } finally {
+            placesWithPrefix.end(start);
+        }
+    }
+
+    @Override
+    public double distance(String zip1, String zip2) {
+        return distance(zip1, zip2, DistanceUnit.MILES);
+    }
+
+    @Override
+    public double distance(String zip1, String zip2, DistanceUnit unit) {
+        long start = distance.start();
+        try {
+            double miles = delegate.distance(zip1, zip2, unit);
+            distance.recordFound(miles >= 0);
+            return miles;
+        } catch (RuntimeException e) {
+            distance.recordFailure();
+            throw e;
+        } finally {
+            distance.end(start);
+        }
+    }
+
+    @Override
+    public double[] distances(String fromZip, List<String> toZips, DistanceUnit unit) {
+        long start = distances.start();
+        try {
+            return delegate.distances(fromZip, toZips, unit);
+        } catch (RuntimeException e) {
+            distances.recordFailure();
+            throw e;
+        } finally {
+            distances.end(start);
+        }
+    }
+
+    @Override
+    public double[][] distanceMatrix(List<String> fromZips, List<String> toZips, DistanceUnit unit) {
+        long start = distanceMatrix.start();
+        try {
+            return delegate.distanceMatrix(fromZips, toZips, unit);
+        } catch (RuntimeException e) {
+            distanceMatrix.recordFailure();
+            throw e;
+        } finally {
+            distanceMatrix.end(start);
+        }
+    }
+
+    @Override
+    public List<LocatedPlace> findNearest(double latitude, double longitude, int k) {
+        long start = findNearest.start();
+        try {
+            return delegate.findNearest(latitude, longitude, k);
+        } catch (RuntimeException e) {
+            findNearest.recordFailure();
+            throw e;
+        } finally {
+            findNearest.end(start);
+        }
+    }
+
+    @Override
+    public List<LocatedPlace> findWithinRadius(double latitude, double longitude, double radiusMiles) {
+        long start = findWithinRadius.start();
+        try {
+            List<LocatedPlace> places = delegate.findWithinRadius(latitude, longitude, radiusMiles);
+            findWithinRadius.recordFound(!places.isEmpty());
+            return places;
+        } catch (RuntimeException e) {
+            findWithinRadius.recordFailure();
+            throw e;
+        } finally {
+            findWithinRadius.end(start);
+        }
+    }
+
+    @Override
+    public void sortByTownName() {
+        long start = sortByTownName.start();
+        try {
+            delegate.sortByTownName();
+        } catch (RuntimeException e) {
+            sortByTownName.recordFailure();
+            throw e;
+        } finally {
+            sortByTownName.end(start);
+        }
+    }
+
+    @Override
+    public int binarySearchByTownName(String townName, int low, int high) {
+        long start = binarySearchByTownName.start();
+        try {
+            int index = delegate.binarySearchByTownName(townName, low, high);
+            binarySearchByTownName.recordFound(index >= 0);
+            return index;
+        } catch (RuntimeException e) {
+            binarySearchByTownName.recordFailure();
+            throw e;
+        } finally {
+            binarySearchByTownName.end(start);
+        }
+    }
+
+    @Override
+    public int sequentialSearchByTownName(String townName) {
+        long start = sequentialSearchByTownName.start();
+        try {
+            int index = delegate.sequentialSearchByTownName(townName);
+            sequentialSearchByTownName.recordFound(index >= 0);
+            return index;
+        } catch (RuntimeException e) {
+            sequentialSearchByTownName.recordFailure();
+            throw e;
+        } finally {
+            sequentialSearchByTownName.end(start);
+        }
+    }
+
+    @Override
+    public List<Place> lookupByTownName(String townName) {
+        long start = lookupByTownName.start();
+        try {
+            List<Place> places = delegate.lookupByTownName(townName);
+            lookupByTownName.recordFound(!places.isEmpty());
+            return places;
+        } catch (RuntimeException e) {
+            lookupByTownName.recordFailure();
+            throw e;
+        } finally {
+            lookupByTownName.end(start);
+        }
+    }
+
+    @Override
+    public List<TownMatch> completeTownName(String prefix, String state, int k) {
+        long start = completeTownName.start();
+        try {
+            List<TownMatch> matches = delegate.completeTownName(prefix, state, k);
+            completeTownName.recordFound(!matches.isEmpty());
+            return matches;
+        } catch (RuntimeException e) {
+            completeTownName.recordFailure();
+            throw e;
+        } finally {
+            completeTownName.end(start);
+        }
+    }
+
+    @Override
+    public List<TownMatch> searchTownName(String query, String state, int k) {
+        long start = searchTownName.start();
+        try {
+            List<TownMatch> matches = delegate.searchTownName(query, state, k);
+            searchTownName.recordFound(!matches.isEmpty());
+            return matches;
+        } catch (RuntimeException e) {
+            searchTownName.recordFailure();
+            throw e;
+        } finally {
+            searchTownName.end(start);
+        }
+    }
+
+    @Override
+    public int rankByPopulation(String townName) {
+        long start = rankByPopulation.start();
+        try {
+            int rank = delegate.rankByPopulation(townName);
+            rankByPopulation.recordFound(rank > 0);
+            return rank;
+        } catch (RuntimeException e) {
+            rankByPopulation.recordFailure();
+            throw e;
+        } finally {
+            rankByPopulation.end(start);
+        }
+    }
+
+    @Override
+    public List<PopulatedPlace> topByPopulation(String state, int k) {
+        long start = topByPopulation.start();
+        try {
+            List<PopulatedPlace> places = delegate.topByPopulation(state, k);
+            topByPopulation.recordFound(!places.isEmpty());
+            return places;
+        } catch (RuntimeException e) {
+            topByPopulation.recordFailure();
+            throw e;
+        } finally {
+            topByPopulation.end(start);
+        }
+    }
+
+    @Override
+    public List<PopulatedPlace> findByPopulation(String state, int minPopulation, int maxPopulation) {
+        long start = findByPopulation.start();
+        try {
+            List<PopulatedPlace> places = delegate.findByPopulation(state, minPopulation, maxPopulation);
+            findByPopulation.recordFound(!places.isEmpty());
+            return places;
+        } catch (RuntimeException e) {
+            findByPopulation.recordFailure();
+            throw e;
+        } finally {
+            findByPopulation.end(start);
+        }
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByState() {
+        long start = populationByState.start();
+        try {
+            Map<String, PopulationStats> stats = delegate.populationByState();
+            populationByState.recordFound(!stats.isEmpty());
+            return stats;
+        } catch (RuntimeException e) {
+            populationByState.recordFailure();
+            throw e;
+        } finally {
+            populationByState.end(start);
+        }
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByZipPrefix(int digits) {
+        long start = populationByZipPrefix.start();
+        try {
+            Map<String, PopulationStats> stats = delegate.populationByZipPrefix(digits);
+            populationByZipPrefix.recordFound(!stats.isEmpty());
+            return stats;
+        } catch (RuntimeException e) {
+            populationByZipPrefix.recordFailure();
+            throw e;
+        } finally {
+            populationByZipPrefix.end(start);
+        }
+    }
+
+    @Override
+    public PopulationStats populationWithinRadius(double latitude, double longitude, double radiusMiles) {
+        long start = populationWithinRadius.start();
+        try {
+            PopulationStats stats = delegate.populationWithinRadius(latitude, longitude, radiusMiles);
+            populationWithinRadius.recordFound(stats.getPlaces() > 0);
+            return stats;
+        } catch (RuntimeException e) {
+            populationWithinRadius.recordFailure();
+            throw e;
+        } finally {
+            populationWithinRadius.end(start);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    @Override
+    public Place getPlace(int index) {
+        long start = getPlace.start();
+        try {
+            return delegate.getPlace(index);
+        } catch (RuntimeException e) {
+            getPlace.recordFailure();
+            throw e;
+        } finally {
+            getPlace.end(start);
+        }
+    }
+
+    @Override
+    public void saveToFile(String fileName) throws IOException {
+        long start = saveToFile.start();
+        try {
+            delegate.saveToFile(fileName);
+        } catch (IOException | RuntimeException e) {
+            saveToFile.recordFailure();
+            throw e;
+        } finally {
+            saveToFile.end(start);
+        }
+    }
+
+    @Override
+    public void loadFromFile(String fileName) throws IOException, ClassNotFoundException {
+        long start = loadFromFile.start();
+        try {
+            delegate.loadFromFile(fileName);
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            loadFromFile.recordFailure();
+            throw e;
+        } finally {
+            loadFromFile.end(start);
+        }
+    }
+
+    @Override
+    public void readZipCodes() throws IOException {
+        long start = readZipCodes.start();
+        try {
+            delegate.readZipCodes();
+        } catch (IOException | RuntimeException e) {
+            readZipCodes.recordFailure();
+            throw e;
+        } finally {
+            readZipCodes.end(start);
+        }
+    }
+}
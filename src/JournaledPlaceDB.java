@@ -0,0 +1,471 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * The JournaledPlaceDB class is a PlaceDB decorator that makes changes
+ * durable as they happen instead of when the database is saved. Its state on
+ * disk is a snapshot file, written by the database it wraps, plus a PlaceLog
+ * next to it (the snapshot name with ".log" added) holding every addPlace,
+ * addAll and sortByTownName since the snapshot was written.
+ *
+ * Each change is appended to the log and forced to disk before the call
+ * returns; concurrent writers share fsyncs. Saving to the snapshot file
+ * therefore only has to wait for the log, whatever the size of the database.
+ * When the log grows past the compaction threshold the database is written
+ * to a new snapshot, which replaces the old one with an atomic rename, and
+ * the log is emptied. loadFromFile of the snapshot file loads the snapshot and
+ * replays the log, so after a crash every change whose call returned is back.
+ *
+ * Each compaction starts a new generation. The snapshot ends with a 12 byte
+ * trailer ("PLGN" and the generation) after the bytes the wrapped database
+ * wrote, which its loadFromFile ignores, and the emptied log records the same
+ * generation in its header. A crash between the rename and the truncation
+ * leaves a log of an older generation than the snapshot; its records are
+ * already in the snapshot, so loading skips them instead of applying them twice.
+ *
+ * Starting from the CSV files with readZipCodes writes no snapshot when there
+ * is none to replace: the log begins with a READ_ZIP_CODES record instead,
+ * which loading replays by reading the CSV files, and the first compaction
+ * writes the snapshot.
+ *
+ * Call loadFromFile (with the snapshot file, which need not exist yet) or
+ * readZipCodes before changing anything, and close when done. Changes are
+ * applied to the wrapped database before they are durable, so a reader may
+ * briefly see a place a crash would lose. It is as thread-safe as the
+ * database it wraps; writes through this object are serialized.
+ */
+public class JournaledPlaceDB implements PlaceDB, AutoCloseable {
+    public static final long DEFAULT_COMPACTION_BYTES = 8L << 20;
+
+    private static final int TRAILER_MAGIC = 0x504C474E; // "PLGN"
+    private static final int TRAILER_BYTES = 12;
+
+    private final PlaceDB delegate;
+    private final File snapshotFile;
+    private final File logFile;
+    private final long compactionBytes;
+    // Serializes writes, so the log holds changes in the order they were applied.
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile PlaceLog log;
+    private long compactions;
+
+    public JournaledPlaceDB(PlaceDB delegate, String snapshotFileName) {
+        this(delegate, snapshotFileName, DEFAULT_COMPACTION_BYTES);
+    }
+
+    /**
+     * @param delegate         the database to make durable
+     * @param snapshotFileName the snapshot file; the log is this name with ".log" added
+     * @param compactionBytes  the log size at which a new snapshot is written
+     */
+    public JournaledPlaceDB(PlaceDB delegate, String snapshotFileName, long compactionBytes) {
+        this.delegate = delegate;
+        this.snapshotFile = new File(snapshotFileName);
+        this.logFile = new File(snapshotFileName + ".log");
+        this.compactionBytes = compactionBytes;
+    }
+
+    /**
+     * @return whether a snapshot, or a log with records, exists to be loaded with loadFromFile
+     */
+    public boolean hasSavedState() {
+        return snapshotFile.exists() || logFile.length() > PlaceLog.HEADER_BYTES;
+    }
+
+    /**
+     * @return the log, or null before the first load
+     */
+    public PlaceLog getLog() {
+        return log;
+    }
+
+    public long getCompactionCount() {
+        writeLock.lock();
+        try {
+            return compactions;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the database to a new snapshot and empties the log.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void compact() throws IOException {
+        writeLock.lock();
+        try {
+            PlaceLog current = openLog();
+            current.sync();
+            long generation = Math.max(current.getGeneration(), snapshotGeneration()) + 1;
+            File temporary = new File(snapshotFile.getPath() + ".tmp");
+            delegate.saveToFile(temporary.getPath());
+            try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES).putInt(TRAILER_MAGIC).putLong(generation);
+                trailer.flip();
+                long end = channel.size();
+                while (trailer.hasRemaining()) {
+                    channel.write(trailer, end + trailer.position());
+                }
+                channel.force(true);
+            }
+            Files.move(temporary.toPath(), snapshotFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            current.truncate(generation);
+            compactions++;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Makes every change durable and closes the log. The database can be
+     * used again after another loadFromFile.
+     */
+    @Override
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the generation from the snapshot's trailer.
+     *
+     * @return the generation, or 0 if there is no snapshot or it was not written by compact
+     */
+    private long snapshotGeneration() throws IOException {
+        if (!snapshotFile.exists()) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < TRAILER_BYTES) {
+                return 0;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            long start = channel.size() - TRAILER_BYTES;
+            while (trailer.hasRemaining() && channel.read(trailer, start + trailer.position()) >= 0) {
+                // Reads until full.
+            }
+            return trailer.getInt(0) == TRAILER_MAGIC ? trailer.getLong(4) : 0;
+        }
+    }
+
+    /**
+     * Opens the log if no load has, emptying it: the caller is about to write a snapshot of everything.
+     */
+    private PlaceLog openLog() throws IOException {
+        if (log == null) {
+            log = PlaceLog.open(logFile, new ArrayList<>());
+        }
+        return log;
+    }
+
+    private PlaceLog requireLog() {
+        PlaceLog current = log;
+        if (current == null) {
+            throw new IllegalStateException("load " + snapshotFile + " or read the zipcode files before changing the database");
+        }
+        return current;
+    }
+
+    /**
+     * Waits for a change to be durable, then compacts if the log has grown past the threshold.
+     */
+    private void commit(PlaceLog current, long sequence) {
+        try {
+            current.awaitDurable(sequence);
+            if (current.getSize() > compactionBytes && writeLock.tryLock()) {
+                try {
+                    if (log == current && current.getSize() > compactionBytes) {
+                        compact();
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void addPlace(Place newPlace) {
+        if (newPlace == null || newPlace.getZipcode() == null) {
+            delegate.addPlace(newPlace); // Reports the invalid place; there is nothing to log.
+            return;
+        }
+        PlaceLog current;
+        long sequence;
+        writeLock.lock();
+        try {
+            current = requireLog();
+            sequence = current.appendAdd(List.of(newPlace));
+            delegate.addPlace(newPlace);
+        } finally {
+            writeLock.unlock();
+        }
+        commit(current, sequence);
+    }
+
+    /**
+     * Logs the batch as one record, so a crash keeps all of it or none.
+     */
+    @Override
+    public int addAll(Collection<? extends Place> newPlaces) {
+        PlaceLog current;
+        long sequence;
+        int added;
+        writeLock.lock();
+        try {
+            current = requireLog();
+            sequence = current.appendAdd(newPlaces);
+            added = delegate.addAll(newPlaces);
+        } finally {
+            writeLock.unlock();
+        }
+        commit(current, sequence);
+        return added;
+    }
+
+    @Override
+    public void sortByTownName() {
+        PlaceLog current;
+        long sequence;
+        writeLock.lock();
+        try {
+            current = requireLog();
+            sequence = current.appendSortByTownName();
+            delegate.sortByTownName();
+        } finally {
+            writeLock.unlock();
+        }
+        commit(current, sequence);
+    }
+
+    /**
+     * Saving to the snapshot file only waits for the log, since every change
+     * is already in it; compact writes the snapshot itself. Any other file
+     * gets a full copy from the wrapped database.
+     */
+    @Override
+    public void saveToFile(String fileName) throws IOException {
+        if (new File(fileName).getAbsoluteFile().equals(snapshotFile.getAbsoluteFile())) {
+            writeLock.lock();
+            try {
+                if (log == null) {
+                    compact();
+                } else {
+                    log.sync();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } else {
+            delegate.saveToFile(fileName);
+        }
+    }
+
+    /**
+     * Loading the snapshot file loads it, if it exists, and replays the log.
+     * Loading any other file replaces the database with its contents and
+     * compacts, so that file becomes the new starting point.
+     */
+    @Override
+    public void loadFromFile(String fileName) throws IOException, ClassNotFoundException {
+        writeLock.lock();
+        try {
+            close();
+            if (!new File(fileName).getAbsoluteFile().equals(snapshotFile.getAbsoluteFile())) {
+                delegate.loadFromFile(fileName);
+                compact();
+                return;
+            }
+            long generation = snapshotGeneration();
+            if (snapshotFile.exists()) {
+                delegate.loadFromFile(snapshotFile.getPath());
+            }
+            List<PlaceLog.Record> records = new ArrayList<>();
+            log = PlaceLog.open(logFile, records);
+            if (log.getGeneration() < generation) {
+                // A crash after the snapshot was renamed but before the log was emptied: the records are in the snapshot.
+                log.truncate(generation);
+                return;
+            }
+            if (log.getGeneration() > generation) {
+                long logGeneration = log.getGeneration();
+                close();
+                throw new IOException(logFile + " continues snapshot generation " + logGeneration
+                        + " but " + snapshotFile + " is generation " + generation);
+            }
+            for (PlaceLog.Record record : records) {
+                if (record.getType() == PlaceLog.READ_ZIP_CODES) {
+                    delegate.readZipCodes();
+                } else if (record.getType() == PlaceLog.SORT_BY_TOWN_NAME) {
+                    delegate.sortByTownName();
+                } else {
+                    delegate.addAll(record.getPlaces());
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the CSV files, which become the new starting point. A snapshot
+     * that exists is replaced by compacting; otherwise the log is emptied and
+     * starts with a READ_ZIP_CODES record, and no snapshot is written yet.
+     */
+    @Override
+    public void readZipCodes() throws IOException {
+        writeLock.lock();
+        try {
+            close();
+            delegate.readZipCodes();
+            if (snapshotFile.exists()) {
+                compact();
+                return;
+            }
+            log = PlaceLog.open(logFile, new ArrayList<>());
+            log.truncate(0);
+            log.awaitDurable(log.appendReadZipCodes());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Place lookupByZipcode(String zipcode) {
+        return delegate.lookupByZipcode(zipcode);
+    }
+
+    @Override
+    public Map<String, Place> lookupAll(Collection<String> zipcodes) {
+        return delegate.lookupAll(zipcodes);
+    }
+
+    @Override
+    public void listAllPlaces(String prefix) {
+        delegate.listAllPlaces(prefix);
+    }
+
+    @Override
+    public Stream<Place> placesWithPrefix(String prefix) {
+        return delegate.placesWithPrefix(prefix);
+    }
+
+    @Override
+    public double distance(String zip1, String zip2) {
+        return delegate.distance(zip1, zip2);
+    }
+
+    @Override
+    public double distance(String zip1, String zip2, DistanceUnit unit) {
+        return delegate.distance(zip1, zip2, unit);
+    }
+
+    @Override
+    public double[] distances(String fromZip, List<String> toZips, DistanceUnit unit) {
+        return delegate.distances(fromZip, toZips, unit);
+    }
+
+    @Override
+    public double[][] distanceMatrix(List<String> fromZips, List<String> toZips, DistanceUnit unit) {
+        return delegate.distanceMatrix(fromZips, toZips, unit);
+    }
+
+    @Override
+    public List<LocatedPlace> findNearest(double latitude, double longitude, int k) {
+        return delegate.findNearest(latitude, longitude, k);
+    }
+
+    @Override
+    public List<LocatedPlace> findWithinRadius(double latitude, double longitude, double radiusMiles) {
+        return delegate.findWithinRadius(latitude, longitude, radiusMiles);
+    }
+
+    @Override
+    public int binarySearchByTownName(String townName, int low, int high) {
+        return delegate.binarySearchByTownName(townName, low, high);
+    }
+
+    @Override
+    public int sequentialSearchByTownName(String townName) {
+        return delegate.sequentialSearchByTownName(townName);
+    }
+
+    @Override
+    public List<Place> lookupByTownName(String townName) {
+        return delegate.lookupByTownName(townName);
+    }
+
+    @Override
+    public List<TownMatch> completeTownName(String prefix, String state, int k) {
+        return delegate.completeTownName(prefix, state, k);
+    }
+
+    @Override
+    public List<TownMatch> searchTownName(String query, String state, int k) {
+        return delegate.searchTownName(query, state, k);
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByState() {
+        return delegate.populationByState();
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByZipPrefix(int digits) {
+        return delegate.populationByZipPrefix(digits);
+    }
+
+    @Override
+    public PopulationStats populationWithinRadius(double latitude, double longitude, double radiusMiles) {
+        return delegate.populationWithinRadius(latitude, longitude, radiusMiles);
+    }
+
+    @Override
+    public int rankByPopulation(String townName) {
+        return delegate.rankByPopulation(townName);
+    }
+
+    @Override
+    public List<PopulatedPlace> topByPopulation(String state, int k) {
+        return delegate.topByPopulation(state, k);
+    }
+
+    @Override
+    public List<PopulatedPlace> findByPopulation(String state, int minPopulation, int maxPopulation) {
+        return delegate.findByPopulation(state, minPopulation, maxPopulation);
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    @Override
+    public Place getPlace(int index) {
+        return delegate.getPlace(index);
+    }
+}
@@ -1,11 +1,23 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 public class LocatedPlace extends Place {
+    // Pinned to the value of the first release so old database.out files still load.
+    private static final long serialVersionUID = 2405792553868150870L;
+
     private double latitude;
     private double longitude;
 
+    // Precomputed for GeoDistance; recomputed by the setters and after deserialization.
+    private transient double latitudeRadians;
+    private transient double longitudeRadians;
+    private transient double cosLatitude;
+
     public LocatedPlace(String zipcode, String town, String state, double latitude, double longitude) {
         super(zipcode, town, state);
         this.latitude = latitude;
         this.longitude = longitude;
+        updateRadians();
     }
 
     // Copy constructor
@@ -13,6 +25,7 @@ public class LocatedPlace extends Place {
         super(locatedPlace.getZipcode(), locatedPlace.getTown(), locatedPlace.getState());
         this.latitude = locatedPlace.getLatitude();
         this.longitude = locatedPlace.getLongitude();
+        updateRadians();
     }
 
     /**
@@ -31,6 +44,7 @@ public class LocatedPlace extends Place {
      */
     public void setLatitude(double latitude) {
         this.latitude = latitude;
+        updateRadians();
     }
 
     /**
@@ -49,6 +63,45 @@ public class LocatedPlace extends Place {
      */
     public void setLongitude(double longitude) {
         this.longitude = longitude;
+        updateRadians();
+    }
+
+    /**
+     * Returns the latitude in radians.
+     *
+     * @return the latitude in radians
+     */
+    public double getLatitudeRadians() {
+        return latitudeRadians;
+    }
+
+    /**
+     * Returns the longitude in radians.
+     *
+     * @return the longitude in radians
+     */
+    public double getLongitudeRadians() {
+        return longitudeRadians;
+    }
+
+    /**
+     * Returns the cosine of the latitude.
+     *
+     * @return the cosine of the latitude
+     */
+    public double getCosLatitude() {
+        return cosLatitude;
+    }
+
+    private void updateRadians() {
+        latitudeRadians = Math.toRadians(latitude);
+        longitudeRadians = Math.toRadians(longitude);
+        cosLatitude = Math.cos(latitudeRadians);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        updateRadians();
     }
 
     @Override
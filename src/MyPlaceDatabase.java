@@ -1,6 +1,14 @@
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * The MyPlaceDatabase class is a implementation of the PlaceDB interface that
@@ -8,18 +16,68 @@ import java.util.Scanner;
  * between places based on their zipcodes.
  */
 public class MyPlaceDatabase implements PlaceDB {
+    // Case-insensitive town order shared by sortByTownName and binarySearchByTownName.
+    private static final Comparator<Place> TOWN_ORDER =
+            Comparator.comparing(Place::getTown, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER));
+
     private ArrayList<Place> places;
     private boolean isSorted;
+    // Maps each zipcode to its position in places; rebuilt whenever places is reordered.
+    private ZipcodeIndex zipIndex;
+    // Maps each town name to the positions of its places; never requires places to be sorted.
+    private TownIndex townIndex;
+    // Zipcodes in sorted order, for prefix queries.
+    private ZipPrefixIndex prefixIndex;
+    // Shared instances of the town and state names. The places this database creates itself,
+    // in readZipCodes and loadFromFile, use them; places passed to addPlace and addAll are left as they are.
+    private StringDictionary names;
+    // Populations of the populated places, for rankByPopulation.
+    private PopulationRank populationRank;
+    // Population totals by state and zipcode prefix, for the aggregation queries.
+    private DemographicRollup demographics;
+    // k-d tree over the located places; null until the next spatial query after a change.
+    // Immutable once built and volatile, so readers of a published copy may build it (see prepareForReading).
+    private volatile SpatialIndex spatialIndex;
+    // Trigram index over the town names; null until the next town-name search after a change. Built like spatialIndex.
+    private volatile TownSearchIndex townSearchIndex;
 
     public MyPlaceDatabase() {//constructor
         this.places = new ArrayList<>();
+        this.zipIndex = new ZipcodeIndex();
+        this.townIndex = new TownIndex();
+        this.prefixIndex = new ZipPrefixIndex();
+        this.populationRank = new PopulationRank();
+        this.demographics = new DemographicRollup();
+        this.names = new StringDictionary();
+    }
+
+    /**
+     * Copy constructor. The copy has its own list and indexes but shares the
+     * Place objects, so adding to or sorting one database leaves the other alone.
+     * The indexes are cloned rather than rebuilt, and the immutable k-d tree
+     * and trigram index are shared until the copy changes in a way that
+     * invalidates them.
+     *
+     * @param other the database to copy
+     */
+    public MyPlaceDatabase(MyPlaceDatabase other) {
+        this.places = new ArrayList<>(other.places);
+        this.isSorted = other.isSorted;
+        this.zipIndex = new ZipcodeIndex(other.zipIndex);
+        this.townIndex = new TownIndex(other.townIndex);
+        this.prefixIndex = new ZipPrefixIndex(other.prefixIndex);
+        this.names = new StringDictionary(other.names);
+        this.populationRank = new PopulationRank(other.populationRank);
+        this.demographics = new DemographicRollup(other.demographics);
+        this.spatialIndex = other.spatialIndex;
+        this.townSearchIndex = other.townSearchIndex;
     }
 
     /**
      * The addPlace method is used to add a new place to the database.
      * It checks if the given zipcode already exists in the database and if so,
      * it prints a message indicating that the place already exists.
-     * If the array that stores the places is full, it doubles its capacity.
+     * The duplicate check goes through the zipcode index, so it takes constant time.
      * Finally, it adds the new place to the database.
      */
     @Override
@@ -29,21 +87,65 @@ public class MyPlaceDatabase implements PlaceDB {
             System.out.println("newPlace cannot be null");
             return;
         }
-        // Iterate over the places array from index 0 to size-1.
-        for (Place place : places) {
-            //Check if the zipcode of the current place in the
-            // iteration is equal to the zipcode of the newPlace object.
-            if (place.getZipcode().equals(newPlace.getZipcode())) {
-                //If a match is found, print "the place with the zipcode {zipcode}
-                // already exists" and return.
-                System.out.println("the place with the zipcode " + newPlace.getZipcode() + " already exist");
-                return;
-            }
+        if (newPlace.getZipcode() == null) {
+            System.out.println("Invalid zipcode");
+            return;
+        }
+        //Claim the zipcode in the index. If it is already taken, print
+        // "the place with the zipcode {zipcode} already exists" and return.
+        if (!zipIndex.putIfAbsent(newPlace.getZipcode(), places.size())) {
+            System.out.println("the place with the zipcode " + newPlace.getZipcode() + " already exist");
+            return;
         }
         places.add(newPlace);
+        indexPlace(places.size() - 1);
         isSorted = false;
     }
 
+    /**
+     * Adds many places in one pass, without printing anything. The zipcode
+     * index is still checked place by place, which also catches duplicates
+     * within the batch; the other indexes are brought up to date once, after
+     * every place has been appended.
+     */
+    @Override
+    public int addAll(Collection<? extends Place> newPlaces) {
+        int first = places.size();
+        places.ensureCapacity(first + newPlaces.size());
+        for (Place place : newPlaces) {
+            if (place != null && place.getZipcode() != null && zipIndex.putIfAbsent(place.getZipcode(), places.size())) {
+                places.add(place);
+            }
+        }
+        for (int i = first; i < places.size(); i++) {
+            indexPlace(i);
+        }
+        if (places.size() > first) {
+            isSorted = false;
+        }
+        return places.size() - first;
+    }
+
+    /**
+     * Adds an appended place to every index but the zipcode index.
+     */
+    private void indexPlace(int index) {
+        Place place = places.get(index);
+        // The indexes key on the shared names, whatever instances the place holds.
+        String town = names.intern(place.getTown());
+        String state = names.intern(place.getState());
+        townIndex.add(town, index);
+        prefixIndex.add(place.getZipcode(), index);
+        if (place instanceof PopulatedPlace) {
+            populationRank.add(town, state, ((PopulatedPlace) place).getPopulation(), index);
+            demographics.add(place);
+        }
+        if (place instanceof LocatedPlace) {
+            spatialIndex = null;
+        }
+        townSearchIndex = null;
+    }
+
     //The lookupByZipcode method is used to search
     // for a place in the database based on its zipcode.
     @Override
@@ -54,19 +156,31 @@ public class MyPlaceDatabase implements PlaceDB {
             System.out.println("Invalid zipcode");
             return null;
         }
-        //Iterate over the places.
-        for (Place place : places) {
-            //Check if the zipcode of the current place in
-            // the iteration is equal to the given zipcode.
-            if (place.getZipcode().equalsIgnoreCase(zipcode)) {
-                return place;//If a match is found, return the place.
+        //Find the position of the place in the zipcode index.
+        int index = zipIndex.get(zipcode);
+        if (index == ZipcodeIndex.NOT_FOUND) {
+            return null;// If no match is found, return null.
+        }
+        return places.get(index);
+    }
+
+    /**
+     * Looks up many zipcodes through the zipcode index, without printing anything.
+     */
+    @Override
+    public Map<String, Place> lookupAll(Collection<String> zipcodes) {
+        Map<String, Place> found = new LinkedHashMap<>(zipcodes.size() * 2);
+        for (String zipcode : zipcodes) {
+            int index = zipIndex.get(zipcode);
+            if (index != ZipcodeIndex.NOT_FOUND) {
+                found.put(zipcode, places.get(index));
             }
         }
-        return null;// If no match is found, return null.
+        return found;
     }
 
     /*The listAllPlaces method lists all the places in the database that
-     have a zipcode starting with a given prefix.
+     have a zipcode starting with a given prefix, in zipcode order.
      prefix (String): The prefix to search for in the zipcodes of the places.
      */
     @Override
@@ -76,140 +190,251 @@ public class MyPlaceDatabase implements PlaceDB {
             System.out.println("Invalid prefix");
             return;
         }
-        boolean found = false;
         System.out.println("Places with zipcode prefix " + prefix + ":");
-        //Iterate over the places.
-        for (Place place : places) {
-            //Check if the zipcode of the current place starts with the given prefix.
-            if (place.getZipcode().startsWith(prefix)) {
-                //If it does, print the current place.
-                System.out.println(places);
-                found = true;
-            }
-            //Check if the prefix was not found in any of the places.
-            if (!found) {
-                System.out.println("No places found with prefix " + prefix);
-            }
+        //Print each matching place as the prefix index produces it.
+        Iterator<Place> found = placesWithPrefix(prefix).iterator();
+        boolean any = found.hasNext();
+        while (found.hasNext()) {
+            System.out.println(found.next());
+        }
+        //Check if the prefix was not found in any of the places.
+        if (!any) {
+            System.out.println("No places found with prefix " + prefix);
+        }
+    }
+
+    /**
+     * Returns the places whose zipcode starts with a prefix, in zipcode order.
+     * The matches are found in O(log n) through the sorted zipcode index and
+     * produced lazily, so callers can stop or page through them; the stream
+     * must be consumed before the database is changed.
+     *
+     * @param prefix the zipcode prefix
+     * @return the matching places
+     */
+    @Override
+    public Stream<Place> placesWithPrefix(String prefix) {
+        if (prefix == null) {
+            return Stream.empty();
         }
-        //Outputs
-        //Prints the places in the database that have a zipcode starting with the given prefix.
+        return prefixIndex.rows(prefix).mapToObj(places::get);
     }
 
-    //The distance method calculates the Euclidean distance between two places
-    // based on their latitude and longitude coordinates.
+    //The distance method calculates the great-circle distance in miles
+    // between two places based on their latitude and longitude coordinates.
     @Override
     public double distance(String zip1, String zip2) {
-        // Retrieve the latitude and longitude coordinates of the places with the
-        // given zipcodes using the lookupByZipcode method.
+        return distance(zip1, zip2, DistanceUnit.MILES);
+    }
+
+    /**
+     * Calculates the great-circle distance between two places.
+     *
+     * @param zip1 the zipcode of the first place
+     * @param zip2 the zipcode of the second place
+     * @param unit the unit of the result
+     * @return the distance, or -1 if either place is unknown or has no location
+     */
+    @Override
+    public double distance(String zip1, String zip2, DistanceUnit unit) {
+        // Retrieve the places with the given zipcodes using the lookupByZipcode method.
         Place place1 = lookupByZipcode(zip1);
         Place place2 = lookupByZipcode(zip2);
 
         // Check if either of the places does not have location information or is not an instance of LocatedPlace
-        if (place1 == null || place2 == null || !(place1 instanceof LocatedPlace) || !(place2 instanceof LocatedPlace)) {
+        if (!(place1 instanceof LocatedPlace) || !(place2 instanceof LocatedPlace)) {
             //If so, return -1 to indicate that the distance calculation is not possible.
             return -1;
         }
-
-        //Extract the latitude and longitude values from the LocatedPlace objects.
-        double lat1 = ((LocatedPlace) place1).getLatitude();
-        double lon1 = ((LocatedPlace) place1).getLongitude();
-        double lat2 = ((LocatedPlace) place2).getLatitude();
-        double lon2 = ((LocatedPlace) place2).getLongitude();
-
-        //Calculate the Euclidean distance between the two points using
-        // the formula Math.sqrt(Math.pow(lat2 - lat1, 2) + Math.pow(lon2 - lon1, 2)).
-        return Math.sqrt(Math.pow(lat2 - lat1, 2) + Math.pow(lon2 - lon1, 2));//Return the calculated distance.
+        return GeoDistance.distance((LocatedPlace) place1, (LocatedPlace) place2, unit);
     }
 
+    /**
+     * Calculates the distances from one place to many.
+     *
+     * @param fromZip the zipcode of the origin
+     * @param toZips  the zipcodes of the destinations
+     * @param unit    the unit of the results
+     * @return the distance to each destination, -1 where either place has no location
+     */
+    @Override
+    public double[] distances(String fromZip, List<String> toZips, DistanceUnit unit) {
+        return distanceMatrix(Collections.singletonList(fromZip), toZips, unit)[0];
+    }
 
     /**
-     * Method to load data from CSV files.
-     * This method reads data from uszipcodes.csv and ziplocs.csv, then combines
-     * the information to create Place, LocatedPlace, or PopulatedPlace objects.
+     * Calculates the distance from every origin to every destination.
+     * The destinations are looked up once and their precomputed radians copied
+     * into primitive arrays; each row is then one GeoDistance.distances loop.
      *
-     * @throws FileNotFoundException if any of the files are not found
+     * @param fromZips the zipcodes of the origins
+     * @param toZips   the zipcodes of the destinations
+     * @param unit     the unit of the results
+     * @return matrix[i][j] is the distance from fromZips[i] to toZips[j], -1 where either has no location
      */
     @Override
-    public void readZipCodes() throws FileNotFoundException {
-        Scanner scZipcodes = new Scanner(new File("uszipcodes.csv"));
-        Scanner scZiplocs = new Scanner(new File("ziplocs.csv"));
-        scZipcodes.nextLine(); // Skip header
-        scZiplocs.nextLine(); // Skip header
-
-        // Temporary storage for places from uszipcodes.csv
-        ArrayList<Place> tempPlaces = new ArrayList<>();
-
-        // Read places and populations from uszipcodes.csv
-        while (scZipcodes.hasNextLine()) {
-            String line = scZipcodes.nextLine();
-            String[] part = line.split(",");
-            if (part.length < 3) {
-                System.out.println("Invalid line in uszipcodes.csv: " + line);
+    public double[][] distanceMatrix(List<String> fromZips, List<String> toZips, DistanceUnit unit) {
+        int n = toZips.size();
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        double[] cosLatitudes = new double[n];
+        for (int j = 0; j < n; j++) {
+            LocatedPlace to = locatedPlace(toZips.get(j));
+            latitudes[j] = to == null ? Double.NaN : to.getLatitudeRadians();
+            longitudes[j] = to == null ? Double.NaN : to.getLongitudeRadians();
+            cosLatitudes[j] = to == null ? Double.NaN : to.getCosLatitude();
+        }
+
+        double[][] matrix = new double[fromZips.size()][n];
+        for (int i = 0; i < matrix.length; i++) {
+            LocatedPlace from = locatedPlace(fromZips.get(i));
+            if (from == null) {
+                Arrays.fill(matrix[i], -1);
                 continue;
             }
-            int population = part.length >= 4 && !part[3].isEmpty() ? Integer.parseInt(part[3]) : -1;
-            Place place;
-            if (population != -1) {
-                place = new PopulatedPlace(part[0], part[1], part[2], 0, 0, population);
-            } else {
-                place = new Place(part[0], part[1], part[2]);
+            GeoDistance.distances(from.getLatitudeRadians(), from.getLongitudeRadians(), from.getCosLatitude(),
+                    latitudes, longitudes, cosLatitudes, matrix[i], unit);
+            for (int j = 0; j < n; j++) {
+                if (Double.isNaN(matrix[i][j])) {
+                    matrix[i][j] = -1;
+                }
             }
-            tempPlaces.add(place);
         }
+        return matrix;
+    }
 
-        // Update places with latitude and longitude from ziplocs.csv
-        while (scZiplocs.hasNextLine()) {
-            String line = scZiplocs.nextLine();
-            String[] part = line.split(",");
-            if (part.length < 8) {
-                System.out.println("Invalid line in ziplocs.csv: " + line);
-                continue;
-            }
+    /**
+     * Looks up a located place without the console messages of lookupByZipcode.
+     *
+     * @return the place, or null if it is unknown or has no location
+     */
+    private LocatedPlace locatedPlace(String zipcode) {
+        int index = zipIndex.get(zipcode);
+        if (index == ZipcodeIndex.NOT_FOUND || !(places.get(index) instanceof LocatedPlace)) {
+            return null;
+        }
+        return (LocatedPlace) places.get(index);
+    }
+
+    /**
+     * Finds the located places closest to a location, using a k-d tree
+     * that is rebuilt on the first spatial query after places change.
+     *
+     * @param latitude  the latitude of the location, in degrees
+     * @param longitude the longitude of the location, in degrees
+     * @param k         the number of places wanted
+     * @return up to k places, nearest first
+     */
+    @Override
+    public List<LocatedPlace> findNearest(double latitude, double longitude, int k) {
+        return locatedPlaces(spatialIndex().nearest(latitude, longitude, k));
+    }
 
-            String zipcode = part[0];
-            try {
-
-                if(part[5].length() > 0 && part[6].length() > 0) {
-                    double latitude = Double.parseDouble(part[5]);
-                    double longitude = Double.parseDouble(part[6]);
-                    for (int i = 0; i < tempPlaces.size(); i++) {
-                        if (tempPlaces.get(i).getZipcode().equals(zipcode)) {
-                            Place updatedPlace = tempPlaces.get(i);
-                            if (updatedPlace instanceof PopulatedPlace) {
-                                PopulatedPlace tempPlace = (PopulatedPlace) lookupByZipcode(part[0]);
-                                tempPlace.setLatitude(latitude);
-                                tempPlace.setLongitude(longitude);
-                            } else {
-                                updatedPlace = new LocatedPlace(zipcode, updatedPlace.getTown(), updatedPlace.getState(), latitude, longitude);
-                            }
-                            tempPlaces.set(i, updatedPlace);
-                            break;
-                        }
-                    }
+    /**
+     * Finds the located places within a great-circle distance of a location.
+     *
+     * @param latitude    the latitude of the location, in degrees
+     * @param longitude   the longitude of the location, in degrees
+     * @param radiusMiles the radius, in miles
+     * @return the places in range, nearest first
+     */
+    @Override
+    public List<LocatedPlace> findWithinRadius(double latitude, double longitude, double radiusMiles) {
+        return locatedPlaces(spatialIndex().withinRadius(latitude, longitude, radiusMiles));
+    }
+
+    private List<LocatedPlace> locatedPlaces(int[] rows) {
+        List<LocatedPlace> found = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            found.add((LocatedPlace) places.get(row));
+        }
+        return found;
+    }
+
+    /**
+     * Sorts the population arrays, which queries would otherwise sort in
+     * place. After this call, and until the next change, the database can be
+     * read from many threads at once. The k-d tree and the trigram index stay
+     * lazy: they are immutable and published through volatile fields, so at
+     * worst two readers racing on the first query after a change both build one.
+     */
+    public void prepareForReading() {
+        populationRank.prepare();
+    }
+
+    private SpatialIndex spatialIndex() {
+        SpatialIndex index = spatialIndex;
+        if (index == null) {
+            double[] latitudes = new double[places.size()];
+            double[] longitudes = new double[places.size()];
+            int[] rows = new int[places.size()];
+            int count = 0;
+            for (int i = 0; i < places.size(); i++) {
+                if (places.get(i) instanceof LocatedPlace) {
+                    LocatedPlace located = (LocatedPlace) places.get(i);
+                    latitudes[count] = located.getLatitude();
+                    longitudes[count] = located.getLongitude();
+                    rows[count++] = i;
                 }
-            } catch (NumberFormatException e) {
-                System.out.println("Invalid number format in ziplocs.csv: " + line);
             }
+            index = new SpatialIndex(latitudes, longitudes, rows, count);
+            spatialIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Method to load data from CSV files.
+     * This method reads data from uszipcodes.csv and ziplocs.csv, then combines
+     * the information to create Place, LocatedPlace, or PopulatedPlace objects.
+     * Both files are memory-mapped, parsed and joined by ZipcodeFileParser.
+     * If ziplocs.csv is missing, the places are loaded without locations.
+     *
+     * @throws FileNotFoundException if uszipcodes.csv is not found
+     * @throws IOException           if either file cannot be read
+     */
+    @Override
+    public void readZipCodes() throws IOException {
+        readZipCodes(false);
+    }
+
+    /**
+     * Loads the CSV files like readZipCodes(), optionally parsing each file in
+     * line-aligned chunks on the common ForkJoinPool. The chunks are merged in
+     * file order before any place is added, so the database ends up exactly as
+     * a sequential load would leave it.
+     * See ZipcodeFileParser.readZipCodeFiles.
+     *
+     * @param parallel whether to parse the files on all cores
+     * @throws FileNotFoundException if uszipcodes.csv is not found
+     * @throws IOException           if either file cannot be read
+     */
+    public void readZipCodes(boolean parallel) throws IOException {
+        List<Place> loaded = ZipcodeFileParser.readZipCodeFiles("uszipcodes.csv", "ziplocs.csv", parallel);
+        shareNames(loaded);
+        places.ensureCapacity(places.size() + loaded.size());
+        for (Place place : loaded) {
+            addPlace(place);
         }
-        scZipcodes.close();
-        scZiplocs.close();
     }
 
     /**
      * Method to save the current state of the database to a binary file.
+     * The file is written in the columnar PlaceSnapshot format.
      *
      * @param fileName the name of the binary file to save to
      * @throws IOException if an I/O error occurs while saving the file
      */
     @Override
     public void saveToFile(String fileName) throws IOException {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(fileName))) {
-            out.writeObject(places);
-        }
+        PlaceSnapshot.of(places).save(fileName);
     }
 
     /**
      * Method to load the state of the database from a binary file.
+     * Files in the PlaceSnapshot format are memory-mapped; files written by
+     * earlier versions with ObjectOutputStream are still read, and are
+     * converted to a snapshot the next time the database is saved.
      *
      * @param fileName the name of the binary file to load from
      * @throws IOException            if an I/O error occurs while loading the file
@@ -217,28 +442,43 @@ public class MyPlaceDatabase implements PlaceDB {
      */
     @Override
     public void loadFromFile(String fileName) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(fileName))) {
-            places = (ArrayList<Place>) in.readObject();
+        if (PlaceSnapshot.isSnapshot(fileName)) {
+            places = PlaceSnapshot.load(fileName).toPlaces();
+        } else {
+            places = PlaceSnapshot.readLegacy(fileName);
+        }
+        names = new StringDictionary();
+        shareNames(places);
+        isSorted = false;
+        rebuildIndexes();
+    }
+
+    /**
+     * Replaces the town and state of places this database has just created
+     * with the shared instances in names, since most places share them with
+     * others. Only places no caller holds yet may be passed here.
+     */
+    private void shareNames(List<Place> created) {
+        for (Place place : created) {
+            place.setTown(names.intern(place.getTown()));
+            place.setState(names.intern(place.getState()));
         }
     }
 
     /**
-     * Bubble sort method for sorting the database by town name.
-     * This method sorts the ArrayList of places alphabetically by town name.
+     * Sort method for sorting the database by town name.
+     * This method sorts the ArrayList of places alphabetically by town name,
+     * ignoring case, which is the order binarySearchByTownName searches in.
+     * The sort is a stable merge sort run with Arrays.parallelSort, so places
+     * in the same town keep their relative order.
      */
     @Override
     public void sortByTownName() {
-        int n = places.size();
-        for (int i = 0; i < n - 1; i++) {
-            for (int j = 0; j < n - i - 1; j++) {
-                if (places.get(j).getTown().compareTo(places.get(j + 1).getTown()) > 0) {
-                    Place temp = places.get(j);
-                    places.set(j, places.get(j + 1));
-                    places.set(j + 1, temp);
-                }
-            }
-        }
+        Place[] sorted = places.toArray(new Place[0]);
+        Arrays.parallelSort(sorted, TOWN_ORDER);
+        places = new ArrayList<>(Arrays.asList(sorted));
         isSorted = true;
+        rebuildIndexes();
     }
 
     /**
@@ -249,10 +489,11 @@ public class MyPlaceDatabase implements PlaceDB {
      * @param low      the lower bound of the search range
      * @param high     the upper bound of the search range
      * @return the index of the town name in the ArrayList, or -1 if not found
+     * or if the database has not been sorted since the last addPlace
      */
     @Override
     public int binarySearchByTownName(String townName, int low, int high) {
-        if (low > high) return -1;
+        if (!isSorted || low > high) return -1;
 
         int mid = (low + high) / 2;
         Place midPlace = places.get(mid);
@@ -272,40 +513,104 @@ public class MyPlaceDatabase implements PlaceDB {
      */
     @Override
     public int sequentialSearchByTownName(String townName) {
+        // With the shared instance, equalsIgnoreCase matches a loaded town in the same case by reference.
+        String name = townName == null ? null : names.canonical(townName);
         for (int i = 0; i < places.size(); i++) {
-            if (places.get(i).getTown().equalsIgnoreCase(townName)) {
+            if (places.get(i).getTown().equalsIgnoreCase(name)) {
                 return i;
             }
         }
         return -1;
     }
 
+    /**
+     * Looks up every place in a town through the town index.
+     * This takes O(log n) and works whether or not the database is sorted.
+     *
+     * @param townName the name of the town to search for, in any case
+     * @return the places in that town, in database order; empty if there are none
+     */
+    @Override
+    public List<Place> lookupByTownName(String townName) {
+        int[] rows = townIndex.get(townName);
+        List<Place> found = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            found.add(places.get(row));
+        }
+        return found;
+    }
+
+    /**
+     * Completes a partly typed town name, using a trigram index that is
+     * rebuilt on the first town-name search after places change.
+     */
+    @Override
+    public List<TownMatch> completeTownName(String prefix, String state, int k) {
+        return townSearchIndex().complete(prefix, state, k);
+    }
+
+    @Override
+    public List<TownMatch> searchTownName(String query, String state, int k) {
+        return townSearchIndex().search(query, state, k);
+    }
+
+    private TownSearchIndex townSearchIndex() {
+        TownSearchIndex index = townSearchIndex;
+        if (index == null) {
+            index = TownSearchIndex.of(this);
+            townSearchIndex = index;
+        }
+        return index;
+    }
+
     /**
      * Method to find the rank of a town by population.
-     * This method sorts the populated places by population in descending order and finds the rank.
+     * Ranks count from the most populous place down, as the maintained
+     * PopulationRank index orders them. A town's rank is that of its most
+     * populous place, and places with the same population share a rank.
      *
      * @param townName the name of the town to find the rank for
      * @return the rank of the town by population, or -1 if not found
      */
     @Override
     public int rankByPopulation(String townName) {
-        ArrayList<PopulatedPlace> populatedPlaces = new ArrayList<>();
-        for (Place place : places) {
-            if (place instanceof PopulatedPlace) {
-                populatedPlaces.add((PopulatedPlace) place);
-            }
-        }
+        return populationRank.rank(townName);
+    }
 
-        // Sort using the PopulationComparator
-        populatedPlaces.sort(new PopulationComparator());
+    /**
+     * Reads the first k entries of the maintained PopulationRank, so the cost
+     * depends on k, not on the number of places.
+     */
+    @Override
+    public List<PopulatedPlace> topByPopulation(String state, int k) {
+        return populatedPlaces(populationRank.top(state, k));
+    }
 
-        // Find the rank
-        for (int i = 0; i < populatedPlaces.size(); i++) {
-            if (populatedPlaces.get(i).getTown().equalsIgnoreCase(townName)) {
-                return i + 1;
-            }
+    @Override
+    public List<PopulatedPlace> findByPopulation(String state, int minPopulation, int maxPopulation) {
+        return populatedPlaces(populationRank.between(state, minPopulation, maxPopulation));
+    }
+
+    private List<PopulatedPlace> populatedPlaces(int[] rows) {
+        List<PopulatedPlace> found = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            found.add((PopulatedPlace) places.get(row));
         }
-        return -1;
+        return found;
+    }
+
+    /**
+     * Reads the maintained DemographicRollup, so the cost depends on the
+     * number of states, not the number of places.
+     */
+    @Override
+    public Map<String, PopulationStats> populationByState() {
+        return demographics.byState();
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByZipPrefix(int digits) {
+        return demographics.byZipPrefix(digits);
     }
 
     @Override
@@ -317,5 +622,22 @@ public class MyPlaceDatabase implements PlaceDB {
     public Place getPlace(int index) {
         return places.get(index);
     }
+
+    /**
+     * Rebuilds the indexes from scratch after places has been replaced or reordered.
+     */
+    private void rebuildIndexes() {
+        zipIndex = new ZipcodeIndex(places.size());
+        townIndex = new TownIndex();
+        prefixIndex = new ZipPrefixIndex();
+        populationRank = new PopulationRank();
+        demographics = new DemographicRollup();
+        spatialIndex = null;
+        townSearchIndex = null;
+        for (int i = 0; i < places.size(); i++) {
+            zipIndex.putIfAbsent(places.get(i).getZipcode(), i);
+            indexPlace(i);
+        }
+    }
 }
 
@@ -0,0 +1,1004 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The OffHeapPlaceDatabase class is an implementation of the PlaceDB interface
+ * that keeps all of its data outside the Java heap, so the heap used stays
+ * the same whatever the number of places and the garbage collector never
+ * has to trace them. Everything lives in five ByteBuffers:
+ * <pre>
+ *   records     one fixed-width 48 byte record per place
+ *   pool        the distinct strings, each as (int length, UTF-8 bytes)
+ *   poolTable   open-addressing hash table from string to its pool offset
+ *   zipTable    open-addressing hash table from zipcode to row
+ *   townTable   open-addressing hash table from town name to the first and
+ *               last row of the town; the rows of a town are chained
+ *               through the records
+ * </pre>
+ * The buffers are direct while the database is built in memory. saveToFile
+ * writes them out one after the other, so loadFromFile only has to map the
+ * file read-only and slice it; nothing is parsed or rebuilt, and a read-only
+ * file loads as well as any other. The first change after a load copies the
+ * mapped buffers into direct buffers, so the file itself is never written.
+ *
+ * Record layout:
+ * <pre>
+ *   int zipcode     the five digit zipcode, -2 - pool offset, or -1 for null
+ *   int town        pool offset, or -1 for null
+ *   int state       pool offset, or -1 for null
+ *   byte kind       PlaceSnapshot.PLACE, LOCATED_PLACE or POPULATED_PLACE
+ *   int population, int males, int females
+ *   int nextInTown  the next row of the same town, or -1
+ *   double latitude, double longitude
+ * </pre>
+ *
+ * Queries without an off-heap index (population rank, spatial and prefix
+ * queries) scan the records rather than keep a structure on the heap. The
+ * exception is town-name search, where a scan computing edit distances would
+ * take hundreds of milliseconds: it uses a TownSearchIndex on the heap, built
+ * on the first search after a change. The population rollups by state and
+ * zipcode prefix are also on the heap; they hold one small entry per group,
+ * are built by one scan on the first aggregation query and then kept up to
+ * date as places are added.
+ * Place objects are materialized on demand and are copies.
+ */
+public class OffHeapPlaceDatabase implements PlaceDB {
+    public static final int MAGIC = 0x504C4F48; // "PLOH"
+    public static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 40;
+    private static final int RECORD_BYTES = 48;
+    private static final int ZIPCODE = 0;
+    private static final int TOWN = 4;
+    private static final int STATE = 8;
+    private static final int KIND = 12;
+    private static final int POPULATION = 16;
+    private static final int MALES = 20;
+    private static final int FEMALES = 24;
+    private static final int NEXT_IN_TOWN = 28;
+    private static final int LATITUDE = 32;
+    private static final int LONGITUDE = 40;
+
+    private static final int NULL = -1;
+    private static final int INITIAL_ROWS = 1024;
+    private static final int INITIAL_POOL_BYTES = 64 * 1024;
+    private static final int INITIAL_SLOTS = 1024;
+    private static final int TOWN_SLOT_BYTES = 8;
+
+    private int size;
+    private ByteBuffer records;
+    private int poolBytes;
+    private int stringCount;
+    private ByteBuffer pool;
+    private ByteBuffer poolTable;
+    private ByteBuffer zipTable;
+    private int townCount;
+    private ByteBuffer townTable;
+    private boolean isSorted;
+    // On the heap; null until the next town-name search after a change.
+    private TownSearchIndex townSearchIndex;
+    // On the heap; null until the first aggregation query, then updated by every add.
+    private DemographicRollup demographics;
+
+    public OffHeapPlaceDatabase() {
+        clear();
+    }
+
+    /**
+     * Adds a place, unless its zipcode is already in the database,
+     * by appending one record.
+     */
+    @Override
+    public void addPlace(Place newPlace) {
+        if (newPlace == null) {
+            System.out.println("newPlace cannot be null");
+            return;
+        }
+        if (newPlace.getZipcode() == null) {
+            System.out.println("Invalid zipcode");
+            return;
+        }
+        if (findZipcode(newPlace.getZipcode()) != NULL) {
+            System.out.println("the place with the zipcode " + newPlace.getZipcode() + " already exist");
+            return;
+        }
+        makeWritable();
+        if ((size + 1) * RECORD_BYTES > records.capacity()) {
+            records = grow(records, size * RECORD_BYTES, Math.max(INITIAL_ROWS, size * 2) * RECORD_BYTES);
+        }
+        indexRow(append(newPlace));
+        isSorted = false;
+    }
+
+    /**
+     * Adds many places without printing anything. The records buffer is grown
+     * once for the whole batch; each place is indexed as it is appended, so
+     * duplicates within the batch are caught too.
+     */
+    @Override
+    public int addAll(Collection<? extends Place> newPlaces) {
+        makeWritable();
+        if ((size + newPlaces.size()) * RECORD_BYTES > records.capacity()) {
+            records = grow(records, size * RECORD_BYTES, (size + newPlaces.size()) * RECORD_BYTES);
+        }
+        int first = size;
+        for (Place place : newPlaces) {
+            if (place != null && place.getZipcode() != null && findZipcode(place.getZipcode()) == NULL) {
+                indexRow(append(place));
+            }
+        }
+        if (size > first) {
+            isSorted = false;
+        }
+        return size - first;
+    }
+
+    @Override
+    public Map<String, Place> lookupAll(Collection<String> zipcodes) {
+        Map<String, Place> found = new LinkedHashMap<>(zipcodes.size() * 2);
+        for (String zipcode : zipcodes) {
+            int row = zipcode == null ? NULL : findZipcode(zipcode);
+            if (row != NULL) {
+                found.put(zipcode, getPlace(row));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Writes a place into the next record, which the caller has made room for.
+     *
+     * @return the row of the place
+     */
+    private int append(Place newPlace) {
+        int row = size++;
+        int at = row * RECORD_BYTES;
+        int key = ZipcodeIndex.encode(newPlace.getZipcode());
+        records.putInt(at + ZIPCODE, key >= 0 ? key : -2 - intern(newPlace.getZipcode()));
+        records.putInt(at + TOWN, intern(newPlace.getTown()));
+        records.putInt(at + STATE, intern(newPlace.getState()));
+        records.put(at + KIND, PlaceSnapshot.PLACE);
+        records.putInt(at + POPULATION, 0);
+        records.putInt(at + MALES, 0);
+        records.putInt(at + FEMALES, 0);
+        records.putDouble(at + LATITUDE, 0);
+        records.putDouble(at + LONGITUDE, 0);
+        if (newPlace instanceof LocatedPlace) {
+            LocatedPlace located = (LocatedPlace) newPlace;
+            records.put(at + KIND, PlaceSnapshot.LOCATED_PLACE);
+            records.putDouble(at + LATITUDE, located.getLatitude());
+            records.putDouble(at + LONGITUDE, located.getLongitude());
+        }
+        if (newPlace instanceof PopulatedPlace) {
+            PopulatedPlace populated = (PopulatedPlace) newPlace;
+            records.put(at + KIND, PlaceSnapshot.POPULATED_PLACE);
+            records.putInt(at + POPULATION, populated.getPopulation());
+            records.putInt(at + MALES, populated.getMales());
+            records.putInt(at + FEMALES, populated.getFemales());
+        }
+        return row;
+    }
+
+    @Override
+    public Place lookupByZipcode(String zipcode) {
+        if (zipcode == null || zipcode.isEmpty()) {
+            System.out.println("Invalid zipcode");
+            return null;
+        }
+        int row = findZipcode(zipcode);
+        return row == NULL ? null : getPlace(row);
+    }
+
+    @Override
+    public void listAllPlaces(String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            System.out.println("Invalid prefix");
+            return;
+        }
+        System.out.println("Places with zipcode prefix " + prefix + ":");
+        Iterator<Place> found = placesWithPrefix(prefix).iterator();
+        boolean any = found.hasNext();
+        while (found.hasNext()) {
+            System.out.println(found.next());
+        }
+        if (!any) {
+            System.out.println("No places found with prefix " + prefix);
+        }
+    }
+
+    /**
+     * Scans the zipcode of every record, then orders the matches by zipcode
+     * like the other implementations do.
+     */
+    @Override
+    public Stream<Place> placesWithPrefix(String prefix) {
+        if (prefix == null) {
+            return Stream.empty();
+        }
+        return IntStream.range(0, size)
+                .filter(row -> zipcode(row).startsWith(prefix))
+                .boxed()
+                .sorted(Comparator.comparing(this::zipcode))
+                .map(this::getPlace);
+    }
+
+    @Override
+    public double distance(String zip1, String zip2) {
+        return distance(zip1, zip2, DistanceUnit.MILES);
+    }
+
+    @Override
+    public double distance(String zip1, String zip2, DistanceUnit unit) {
+        int row1 = locatedRow(zip1);
+        int row2 = locatedRow(zip2);
+        if (row1 < 0 || row2 < 0) {
+            return -1;
+        }
+        double latitude1 = Math.toRadians(latitude(row1));
+        double latitude2 = Math.toRadians(latitude(row2));
+        return unit.getEarthRadius() * GeoDistance.centralAngle(
+                latitude1, Math.toRadians(longitude(row1)), Math.cos(latitude1),
+                latitude2, Math.toRadians(longitude(row2)), Math.cos(latitude2));
+    }
+
+    @Override
+    public double[] distances(String fromZip, List<String> toZips, DistanceUnit unit) {
+        return distanceMatrix(Collections.singletonList(fromZip), toZips, unit)[0];
+    }
+
+    @Override
+    public double[][] distanceMatrix(List<String> fromZips, List<String> toZips, DistanceUnit unit) {
+        int n = toZips.size();
+        double[] toLatitudes = new double[n];
+        double[] toLongitudes = new double[n];
+        double[] toCosLatitudes = new double[n];
+        for (int j = 0; j < n; j++) {
+            int row = locatedRow(toZips.get(j));
+            toLatitudes[j] = row < 0 ? Double.NaN : Math.toRadians(latitude(row));
+            toLongitudes[j] = row < 0 ? Double.NaN : Math.toRadians(longitude(row));
+            toCosLatitudes[j] = Math.cos(toLatitudes[j]);
+        }
+
+        double[][] matrix = new double[fromZips.size()][n];
+        for (int i = 0; i < matrix.length; i++) {
+            int row = locatedRow(fromZips.get(i));
+            if (row < 0) {
+                Arrays.fill(matrix[i], -1);
+                continue;
+            }
+            double latitude = Math.toRadians(latitude(row));
+            GeoDistance.distances(latitude, Math.toRadians(longitude(row)), Math.cos(latitude),
+                    toLatitudes, toLongitudes, toCosLatitudes, matrix[i], unit);
+            for (int j = 0; j < n; j++) {
+                if (Double.isNaN(matrix[i][j])) {
+                    matrix[i][j] = -1;
+                }
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Scans every located record, keeping the k closest in a bounded max-heap.
+     */
+    @Override
+    public List<LocatedPlace> findNearest(double latitude, double longitude, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        double cosLat = Math.cos(lat);
+        double[] heapAngles = new double[k];
+        int[] heapRows = new int[k];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (kind(row) == PlaceSnapshot.PLACE) {
+                continue;
+            }
+            double angle = angle(row, lat, lon, cosLat);
+            if (count < k) {
+                int at = count++;
+                while (at > 0 && heapAngles[(at - 1) / 2] < angle) {
+                    heapAngles[at] = heapAngles[(at - 1) / 2];
+                    heapRows[at] = heapRows[(at - 1) / 2];
+                    at = (at - 1) / 2;
+                }
+                heapAngles[at] = angle;
+                heapRows[at] = row;
+            } else if (angle < heapAngles[0]) {
+                int at = 0;
+                while (2 * at + 1 < k) {
+                    int child = 2 * at + 1;
+                    if (child + 1 < k && heapAngles[child + 1] > heapAngles[child]) {
+                        child++;
+                    }
+                    if (heapAngles[child] <= angle) {
+                        break;
+                    }
+                    heapAngles[at] = heapAngles[child];
+                    heapRows[at] = heapRows[child];
+                    at = child;
+                }
+                heapAngles[at] = angle;
+                heapRows[at] = row;
+            }
+        }
+        return locatedPlaces(heapRows, heapAngles, count);
+    }
+
+    /**
+     * Scans every located record.
+     */
+    @Override
+    public List<LocatedPlace> findWithinRadius(double latitude, double longitude, double radiusMiles) {
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        double cosLat = Math.cos(lat);
+        double maxAngle = radiusMiles / DistanceUnit.MILES.getEarthRadius();
+        int[] rows = new int[16];
+        double[] angles = new double[16];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (kind(row) == PlaceSnapshot.PLACE) {
+                continue;
+            }
+            double angle = angle(row, lat, lon, cosLat);
+            if (angle <= maxAngle) {
+                if (count == rows.length) {
+                    rows = Arrays.copyOf(rows, count * 2);
+                    angles = Arrays.copyOf(angles, count * 2);
+                }
+                rows[count] = row;
+                angles[count++] = angle;
+            }
+        }
+        return locatedPlaces(rows, angles, count);
+    }
+
+    /**
+     * Sorts the records by town name, ignoring case, with an in-place heapsort,
+     * so no row array is built on the heap. Ties are broken by the original
+     * row, which keeps places in the same town in their relative order.
+     */
+    @Override
+    public void sortByTownName() {
+        makeWritable();
+        // The town chains are rebuilt afterwards, so nextInTown can hold the original row meanwhile.
+        for (int row = 0; row < size; row++) {
+            records.putInt(row * RECORD_BYTES + NEXT_IN_TOWN, row);
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i, size);
+        }
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        isSorted = true;
+        rebuildIndexes();
+    }
+
+    @Override
+    public int binarySearchByTownName(String townName, int low, int high) {
+        while (isSorted && low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = town(mid).compareToIgnoreCase(townName);
+            if (cmp == 0) {
+                return mid;
+            }
+            if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int sequentialSearchByTownName(String townName) {
+        for (int row = 0; row < size; row++) {
+            String town = town(row);
+            if (town != null && town.equalsIgnoreCase(townName)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public List<Place> lookupByTownName(String townName) {
+        List<Place> found = new ArrayList<>();
+        int slot = findTown(townName);
+        if (slot != NULL) {
+            for (int row = townTable.getInt(slot * TOWN_SLOT_BYTES) - 1; row != NULL;
+                 row = records.getInt(row * RECORD_BYTES + NEXT_IN_TOWN)) {
+                found.add(getPlace(row));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<TownMatch> completeTownName(String prefix, String state, int k) {
+        return townSearchIndex().complete(prefix, state, k);
+    }
+
+    @Override
+    public List<TownMatch> searchTownName(String query, String state, int k) {
+        return townSearchIndex().search(query, state, k);
+    }
+
+    private TownSearchIndex townSearchIndex() {
+        if (townSearchIndex == null) {
+            townSearchIndex = TownSearchIndex.of(this);
+        }
+        return townSearchIndex;
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByState() {
+        return demographics().byState();
+    }
+
+    @Override
+    public Map<String, PopulationStats> populationByZipPrefix(int digits) {
+        return demographics().byZipPrefix(digits);
+    }
+
+    private DemographicRollup demographics() {
+        if (demographics == null) {
+            demographics = new DemographicRollup();
+            for (int row = 0; row < size; row++) {
+                addDemographics(row);
+            }
+        }
+        return demographics;
+    }
+
+    private void addDemographics(int row) {
+        if (kind(row) == PlaceSnapshot.POPULATED_PLACE) {
+            int at = row * RECORD_BYTES;
+            demographics.add(zipcode(row), string(records.getInt(at + STATE)), records.getInt(at + POPULATION),
+                    records.getInt(at + MALES), records.getInt(at + FEMALES));
+        }
+    }
+
+    /**
+     * Finds the town's largest population through its chain of rows, then
+     * counts the places with a larger population in one scan of the records.
+     */
+    @Override
+    public int rankByPopulation(String townName) {
+        int slot = findTown(townName);
+        int max = Integer.MIN_VALUE;
+        if (slot != NULL) {
+            for (int row = townTable.getInt(slot * TOWN_SLOT_BYTES) - 1; row != NULL;
+                 row = records.getInt(row * RECORD_BYTES + NEXT_IN_TOWN)) {
+                if (kind(row) == PlaceSnapshot.POPULATED_PLACE) {
+                    max = Math.max(max, records.getInt(row * RECORD_BYTES + POPULATION));
+                }
+            }
+        }
+        if (max == Integer.MIN_VALUE) {
+            return -1;
+        }
+        int rank = 1;
+        for (int row = 0; row < size; row++) {
+            if (kind(row) == PlaceSnapshot.POPULATED_PLACE
+                    && records.getInt(row * RECORD_BYTES + POPULATION) > max) {
+                rank++;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Scans the records for the state's populated places and sorts their
+     * (population, row) pairs, packed as in PopulationRank.
+     */
+    @Override
+    public List<PopulatedPlace> topByPopulation(String state, int k) {
+        long[] entries = populationEntries(state, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        return populatedPlaces(entries, Math.max(0, entries.length - Math.max(0, k)));
+    }
+
+    @Override
+    public List<PopulatedPlace> findByPopulation(String state, int minPopulation, int maxPopulation) {
+        return populatedPlaces(populationEntries(state, minPopulation, maxPopulation), 0);
+    }
+
+    private long[] populationEntries(String state, int minPopulation, int maxPopulation) {
+        long[] entries = new long[16];
+        int count = 0;
+        // Whether each state's pool offset matches, so each distinct state is decoded once.
+        Map<Integer, Boolean> stateMatches = new HashMap<>();
+        for (int row = 0; row < size; row++) {
+            int at = row * RECORD_BYTES;
+            int population = records.getInt(at + POPULATION);
+            if (kind(row) != PlaceSnapshot.POPULATED_PLACE || population < minPopulation || population > maxPopulation
+                    || state != null && !stateMatches.computeIfAbsent(records.getInt(at + STATE),
+                    offset -> state.equalsIgnoreCase(string(offset)))) {
+                continue;
+            }
+            if (count == entries.length) {
+                entries = Arrays.copyOf(entries, count * 2);
+            }
+            entries[count++] = ((long) population << 32) | (Integer.MAX_VALUE - row);
+        }
+        entries = Arrays.copyOf(entries, count);
+        Arrays.sort(entries);
+        return entries;
+    }
+
+    /**
+     * Materializes the places of entries[from..], most populous first.
+     */
+    private List<PopulatedPlace> populatedPlaces(long[] entries, int from) {
+        List<PopulatedPlace> found = new ArrayList<>(entries.length - from);
+        for (int i = entries.length - 1; i >= from; i--) {
+            found.add((PopulatedPlace) getPlace(Integer.MAX_VALUE - (int) entries[i]));
+        }
+        return found;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Materializes the place in a row.
+     *
+     * @param index the row
+     * @return a new Place, LocatedPlace or PopulatedPlace holding the record's values
+     */
+    @Override
+    public Place getPlace(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        int at = index * RECORD_BYTES;
+        String zipcode = zipcode(index);
+        String town = string(records.getInt(at + TOWN));
+        String state = string(records.getInt(at + STATE));
+        switch (kind(index)) {
+            case PlaceSnapshot.POPULATED_PLACE:
+                return new PopulatedPlace(zipcode, town, state, latitude(index), longitude(index),
+                        records.getInt(at + POPULATION), records.getInt(at + MALES), records.getInt(at + FEMALES));
+            case PlaceSnapshot.LOCATED_PLACE:
+                return new LocatedPlace(zipcode, town, state, latitude(index), longitude(index));
+            default:
+                return new Place(zipcode, town, state);
+        }
+    }
+
+    /**
+     * Writes a header followed by each buffer as it is in memory,
+     * which is the layout loadFromFile maps back. The file is written under a
+     * temporary name and then renamed, because truncating a file in place
+     * would break any database still mapping it, this one included.
+     */
+    @Override
+    public void saveToFile(String fileName) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(poolBytes).putInt(stringCount)
+                .putInt(townCount).putInt(slots(poolTable, 4)).putInt(slots(zipTable, 4))
+                .putInt(slots(townTable, TOWN_SLOT_BYTES));
+        header.clear();
+        ByteBuffer padding = ByteBuffer.allocate(align(poolBytes) - poolBytes);
+        Path target = new File(fileName).toPath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (ByteBuffer region : new ByteBuffer[]{header, records.slice(0, size * RECORD_BYTES),
+                    pool.slice(0, poolBytes), padding, poolTable.duplicate().clear(),
+                    zipTable.duplicate().clear(), townTable.duplicate().clear()}) {
+                while (region.hasRemaining()) {
+                    channel.write(region);
+                }
+            }
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Maps a file written by saveToFile, read-only, so it loads from a
+     * read-only file or directory and changes afterwards never reach it. PlaceSnapshot files and files
+     * written with ObjectOutputStream are read and added place by place.
+     */
+    @Override
+    public void loadFromFile(String fileName) throws IOException, ClassNotFoundException {
+        MappedByteBuffer file;
+        try (FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ)) {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (file.limit() >= HEADER_BYTES && file.getInt(0) == MAGIC) {
+            if (file.getInt(4) != VERSION) {
+                throw new IOException(fileName + " has unsupported off-heap version " + file.getInt(4));
+            }
+            size = file.getInt(8);
+            poolBytes = file.getInt(12);
+            stringCount = file.getInt(16);
+            townCount = file.getInt(20);
+            int pos = HEADER_BYTES;
+            records = file.slice(pos, size * RECORD_BYTES);
+            pos += size * RECORD_BYTES;
+            pool = file.slice(pos, poolBytes);
+            pos += align(poolBytes);
+            poolTable = file.slice(pos, file.getInt(24) * 4);
+            pos += poolTable.capacity();
+            zipTable = file.slice(pos, file.getInt(28) * 4);
+            pos += zipTable.capacity();
+            townTable = file.slice(pos, file.getInt(32) * TOWN_SLOT_BYTES);
+            isSorted = false;
+            townSearchIndex = null;
+            demographics = null;
+        } else if (PlaceSnapshot.isSnapshot(fileName)) {
+            PlaceSnapshot snapshot = PlaceSnapshot.load(fileName);
+            clear();
+            for (int row = 0; row < snapshot.getCount(); row++) {
+                addPlace(snapshot.getPlace(row));
+            }
+        } else {
+            List<Place> places = PlaceSnapshot.readLegacy(fileName);
+            clear();
+            for (Place place : places) {
+                addPlace(place);
+            }
+        }
+    }
+
+    @Override
+    public void readZipCodes() throws IOException {
+        readZipCodes(false);
+    }
+
+    /**
+     * Loads the CSV files, optionally parsing them in parallel.
+     * See ZipcodeFileParser.readZipCodeFiles.
+     *
+     * @param parallel whether to parse the files on all cores
+     * @throws IOException if either file cannot be read
+     */
+    public void readZipCodes(boolean parallel) throws IOException {
+        for (Place place : ZipcodeFileParser.readZipCodeFiles("uszipcodes.csv", "ziplocs.csv", parallel)) {
+            addPlace(place);
+        }
+    }
+
+    /**
+     * Removes every place and goes back to small direct buffers.
+     */
+    private void clear() {
+        size = 0;
+        poolBytes = 0;
+        stringCount = 0;
+        townCount = 0;
+        records = ByteBuffer.allocateDirect(INITIAL_ROWS * RECORD_BYTES);
+        pool = ByteBuffer.allocateDirect(INITIAL_POOL_BYTES);
+        poolTable = ByteBuffer.allocateDirect(INITIAL_SLOTS * 4);
+        zipTable = ByteBuffer.allocateDirect(INITIAL_SLOTS * 4);
+        townTable = ByteBuffer.allocateDirect(INITIAL_SLOTS * TOWN_SLOT_BYTES);
+        isSorted = false;
+        demographics = null;
+    }
+
+    // Records
+
+    private byte kind(int row) {
+        return records.get(row * RECORD_BYTES + KIND);
+    }
+
+    private double latitude(int row) {
+        return records.getDouble(row * RECORD_BYTES + LATITUDE);
+    }
+
+    private double longitude(int row) {
+        return records.getDouble(row * RECORD_BYTES + LONGITUDE);
+    }
+
+    private String zipcode(int row) {
+        int zipcode = records.getInt(row * RECORD_BYTES + ZIPCODE);
+        if (zipcode >= 0) {
+            return ZipcodeIndex.decode(zipcode);
+        }
+        return zipcode == NULL ? null : string(-2 - zipcode);
+    }
+
+    private String town(int row) {
+        return string(records.getInt(row * RECORD_BYTES + TOWN));
+    }
+
+    private int locatedRow(String zipcode) {
+        int row = zipcode == null ? NULL : findZipcode(zipcode);
+        return row == NULL || kind(row) == PlaceSnapshot.PLACE ? -1 : row;
+    }
+
+    private double angle(int row, double lat, double lon, double cosLat) {
+        double rowLat = Math.toRadians(latitude(row));
+        return GeoDistance.centralAngle(lat, lon, cosLat, rowLat, Math.toRadians(longitude(row)), Math.cos(rowLat));
+    }
+
+    private List<LocatedPlace> locatedPlaces(int[] rows, double[] angles, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(angles[a], angles[b]));
+        List<LocatedPlace> found = new ArrayList<>(count);
+        for (Integer i : order) {
+            found.add((LocatedPlace) getPlace(rows[i]));
+        }
+        return found;
+    }
+
+    private int compareRows(int row1, int row2) {
+        String town1 = town(row1);
+        String town2 = town(row2);
+        int cmp = town1 == null || town2 == null
+                ? Boolean.compare(town1 != null, town2 != null)
+                : String.CASE_INSENSITIVE_ORDER.compare(town1, town2);
+        return cmp != 0 ? cmp : Integer.compare(records.getInt(row1 * RECORD_BYTES + NEXT_IN_TOWN),
+                records.getInt(row2 * RECORD_BYTES + NEXT_IN_TOWN));
+    }
+
+    private void siftDown(int at, int end) {
+        while (2 * at + 1 < end) {
+            int child = 2 * at + 1;
+            if (child + 1 < end && compareRows(child + 1, child) > 0) {
+                child++;
+            }
+            if (compareRows(at, child) >= 0) {
+                return;
+            }
+            swap(at, child);
+            at = child;
+        }
+    }
+
+    private void swap(int row1, int row2) {
+        int at1 = row1 * RECORD_BYTES;
+        int at2 = row2 * RECORD_BYTES;
+        for (int i = 0; i < RECORD_BYTES; i += 8) {
+            long value = records.getLong(at1 + i);
+            records.putLong(at1 + i, records.getLong(at2 + i));
+            records.putLong(at2 + i, value);
+        }
+    }
+
+    // String pool
+
+    /**
+     * Returns the pool offset of a string, adding it to the pool if it is new.
+     *
+     * @return the offset, or -1 for null
+     */
+    private int intern(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        int mask = slots(poolTable, 4) - 1;
+        int slot = hash(value.hashCode()) & mask;
+        for (int offset; (offset = poolTable.getInt(slot * 4) - 1) != NULL; slot = (slot + 1) & mask) {
+            if (string(offset).equals(value)) {
+                return offset;
+            }
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (poolBytes + 4 + bytes.length > pool.capacity()) {
+            pool = grow(pool, poolBytes, Math.max(pool.capacity() * 2, poolBytes + 4 + bytes.length));
+        }
+        int offset = poolBytes;
+        pool.putInt(offset, bytes.length);
+        pool.put(offset + 4, bytes);
+        poolBytes += 4 + bytes.length;
+        poolTable.putInt(slot * 4, offset + 1);
+        if (++stringCount * 2 > slots(poolTable, 4)) {
+            rehashPool();
+        }
+        return offset;
+    }
+
+    private String string(int offset) {
+        if (offset == NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[pool.getInt(offset)];
+        pool.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void rehashPool() {
+        poolTable = ByteBuffer.allocateDirect(poolTable.capacity() * 2);
+        int mask = slots(poolTable, 4) - 1;
+        for (int offset = 0; offset < poolBytes; offset += 4 + pool.getInt(offset)) {
+            int slot = hash(string(offset).hashCode()) & mask;
+            while (poolTable.getInt(slot * 4) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            poolTable.putInt(slot * 4, offset + 1);
+        }
+    }
+
+    // Zipcode and town tables
+
+    private int findZipcode(String zipcode) {
+        int key = ZipcodeIndex.encode(zipcode);
+        int mask = slots(zipTable, 4) - 1;
+        int slot = zipHash(key, zipcode) & mask;
+        for (int row; (row = zipTable.getInt(slot * 4) - 1) != NULL; slot = (slot + 1) & mask) {
+            int stored = records.getInt(row * RECORD_BYTES + ZIPCODE);
+            if (key >= 0 ? stored == key : stored < NULL && zipcode.equalsIgnoreCase(zipcode(row))) {
+                return row;
+            }
+        }
+        return NULL;
+    }
+
+    /**
+     * @return the slot of the town in the town table, or -1 if it has no rows
+     */
+    private int findTown(String town) {
+        if (town == null) {
+            return NULL;
+        }
+        int mask = slots(townTable, TOWN_SLOT_BYTES) - 1;
+        int slot = caseInsensitiveHash(town) & mask;
+        for (int head; (head = townTable.getInt(slot * TOWN_SLOT_BYTES) - 1) != NULL; slot = (slot + 1) & mask) {
+            if (town.equalsIgnoreCase(town(head))) {
+                return slot;
+            }
+        }
+        return NULL;
+    }
+
+    private void indexRow(int row) {
+        townSearchIndex = null;
+        if (demographics != null) {
+            addDemographics(row);
+        }
+        if ((row + 1) * 2 > slots(zipTable, 4)) {
+            zipTable = ByteBuffer.allocateDirect(zipTable.capacity() * 2);
+            for (int i = 0; i < row; i++) {
+                insertZipcode(i);
+            }
+        }
+        insertZipcode(row);
+
+        records.putInt(row * RECORD_BYTES + NEXT_IN_TOWN, NULL);
+        String town = town(row);
+        if (town == null) {
+            return;
+        }
+        int slot = findTown(town);
+        if (slot != NULL) {
+            int tail = townTable.getInt(slot * TOWN_SLOT_BYTES + 4) - 1;
+            records.putInt(tail * RECORD_BYTES + NEXT_IN_TOWN, row);
+            townTable.putInt(slot * TOWN_SLOT_BYTES + 4, row + 1);
+            return;
+        }
+        if ((townCount + 1) * 2 > slots(townTable, TOWN_SLOT_BYTES)) {
+            rehashTowns();
+        }
+        int mask = slots(townTable, TOWN_SLOT_BYTES) - 1;
+        slot = caseInsensitiveHash(town) & mask;
+        while (townTable.getInt(slot * TOWN_SLOT_BYTES) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        townTable.putInt(slot * TOWN_SLOT_BYTES, row + 1);
+        townTable.putInt(slot * TOWN_SLOT_BYTES + 4, row + 1);
+        townCount++;
+    }
+
+    private void insertZipcode(int row) {
+        int stored = records.getInt(row * RECORD_BYTES + ZIPCODE);
+        int mask = slots(zipTable, 4) - 1;
+        int slot = zipHash(stored, stored >= 0 ? null : zipcode(row)) & mask;
+        while (zipTable.getInt(slot * 4) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        zipTable.putInt(slot * 4, row + 1);
+    }
+
+    private void rehashTowns() {
+        ByteBuffer old = townTable;
+        townTable = ByteBuffer.allocateDirect(old.capacity() * 2);
+        int mask = slots(townTable, TOWN_SLOT_BYTES) - 1;
+        for (int i = 0; i < old.capacity(); i += TOWN_SLOT_BYTES) {
+            int head = old.getInt(i) - 1;
+            if (head != NULL) {
+                int slot = caseInsensitiveHash(town(head)) & mask;
+                while (townTable.getInt(slot * TOWN_SLOT_BYTES) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                townTable.putLong(slot * TOWN_SLOT_BYTES, old.getLong(i));
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the zipcode and town tables after the records have been reordered.
+     */
+    private void rebuildIndexes() {
+        townSearchIndex = null;
+        // The rollups do not depend on the order of the rows; keep them out of the re-indexing.
+        DemographicRollup kept = demographics;
+        demographics = null;
+        zipTable = ByteBuffer.allocateDirect(zipTable.capacity());
+        townTable = ByteBuffer.allocateDirect(townTable.capacity());
+        townCount = 0;
+        for (int row = 0; row < size; row++) {
+            indexRow(row);
+        }
+        demographics = kept;
+    }
+
+    private static int zipHash(int key, String zipcode) {
+        return key >= 0 ? hash(key) : caseInsensitiveHash(zipcode);
+    }
+
+    private static int caseInsensitiveHash(String value) {
+        return hash(value.toUpperCase(Locale.ROOT).hashCode());
+    }
+
+    private static int hash(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int slots(ByteBuffer table, int slotBytes) {
+        return table.capacity() / slotBytes;
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    /**
+     * Copies the buffers still mapped read-only from a loaded file into direct
+     * buffers, before the first change after the load.
+     */
+    private void makeWritable() {
+        records = writable(records);
+        pool = writable(pool);
+        poolTable = writable(poolTable);
+        zipTable = writable(zipTable);
+        townTable = writable(townTable);
+    }
+
+    private static ByteBuffer writable(ByteBuffer buffer) {
+        return buffer.isReadOnly() ? grow(buffer, buffer.capacity(), buffer.capacity()) : buffer;
+    }
+
+    /**
+     * Copies the used part of a buffer into a larger direct buffer.
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int used, int capacity) {
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+        grown.put(0, buffer, 0, used);
+        return grown;
+    }
+}
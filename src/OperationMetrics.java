@@ -0,0 +1,181 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call count, hit, miss and failure counts and a latency histogram for one
+ * PlaceDB operation. Every call is counted, but only one call in sampleInterval is
+ * timed, because reading the clock twice costs more than a zipcode lookup
+ * does; the sampled calls are chosen at random, so the histogram still
+ * describes the whole population of calls.
+ *
+ * The counts are LongAdders, which spread contended increments over striped
+ * cells instead of making every thread retry one shared counter, so they
+ * scale with the threads of a server and keep no per-thread state. A reader
+ * adds up the cells and may see a count a few calls behind, but no call is
+ * ever lost.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+    /** Returned by start when the call is not timed. */
+    public static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    private final String name;
+    private final int sampleMask;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private volatile long lastNanos;
+    // Sums at the last reset, subtracted from the adders; LongAdder.reset would lose concurrent increments.
+    private volatile long callsAtReset;
+    private volatile long hitsAtReset;
+    private volatile long missesAtReset;
+    private volatile long failuresAtReset;
+
+    /**
+     * @param name           the name of the operation
+     * @param sampleInterval time one call in this many; rounded up to a power of two
+     */
+    public OperationMetrics(String name, int sampleInterval) {
+        this.name = name;
+        int interval = Integer.highestOneBit(Math.max(1, sampleInterval));
+        this.sampleMask = (interval < sampleInterval ? interval << 1 : interval) - 1;
+    }
+
+    /**
+     * Decides whether to time a call.
+     *
+     * @return the start time to pass to end, or NOT_SAMPLED
+     */
+    public long start() {
+        if (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Counts a call, whether or not it succeeded, and records its latency if it was timed.
+     *
+     * @param start the value start returned
+     */
+    public void end(long start) {
+        calls.increment();
+        if (start != NOT_SAMPLED) {
+            long elapsed = System.nanoTime() - start;
+            latencies.record(elapsed);
+            lastNanos = elapsed;
+        }
+    }
+
+    /**
+     * Counts whether a call that returned found what it looked for.
+     *
+     * @param found whether the call found something
+     */
+    public void recordFound(boolean found) {
+        if (found) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+    }
+
+    /**
+     * Counts what a call that returned found when it looked for several things.
+     *
+     * @param hits   how many were found
+     * @param misses how many were not
+     */
+    public void recordFound(long hits, long misses) {
+        if (hits != 0) {
+            this.hits.add(hits);
+        }
+        if (misses != 0) {
+            this.misses.add(misses);
+        }
+    }
+
+    /**
+     * Counts a call that threw. It is neither a hit nor a miss.
+     */
+    public void recordFailure() {
+        failures.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum() - callsAtReset;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum() - hitsAtReset;
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum() - missesAtReset;
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum() - failuresAtReset;
+    }
+
+    @Override
+    public double getHitRate() {
+        long found = getHits();
+        long total = found + getMisses();
+        return total == 0 ? Double.NaN : (double) found / total;
+    }
+
+    @Override
+    public long getSampledCalls() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latencies.getMean() / 1e3;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return latencies.getValueAtPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return latencies.getValueAtPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return latencies.getValueAtPercentile(99.9) / 1e3;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return latencies.getMax() / 1e3;
+    }
+
+    @Override
+    public double getLastMicros() {
+        return lastNanos / 1e3;
+    }
+
+    @Override
+    public synchronized void reset() {
+        callsAtReset += getCalls();
+        hitsAtReset += getHits();
+        missesAtReset += getMisses();
+        failuresAtReset += getFailures();
+        latencies.reset();
+        lastNanos = 0;
+    }
+}
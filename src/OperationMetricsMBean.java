@@ -0,0 +1,35 @@
+/**
+ * JMX view of the metrics of one PlaceDB operation, registered by
+ * InstrumentedPlaceDB.registerMBeans. Latencies are in microseconds.
+ */
+public interface OperationMetricsMBean {
+    long getCalls();
+
+    long getHits();
+
+    long getMisses();
+
+    /** @return the number of calls that threw; they count as neither hits nor misses */
+    long getFailures();
+
+    /** @return hits / (hits + misses), or NaN if the operation reports neither */
+    double getHitRate();
+
+    /** @return the number of calls whose latency was recorded */
+    long getSampledCalls();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    /** @return the latency of the most recent call that was timed */
+    double getLastMicros();
+
+    void reset();
+}
@@ -1,13 +1,34 @@
-import java.io.File;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
  * This class is a possible user interface for the Place Database
  * that uses the console to display the menu of command choices.
+ *
+ * It also has a batch mode, started with
+ * java PDConsoleIO --batch [file]
+ * that reads commands from the file, or from standard input if no file (or -)
+ * is given, one per line, and writes the results through a buffered writer
+ * without showing the menu. See processBatch for the commands.
  */
 public class PDConsoleIO {
 
+    // The most zipcodes held back for one lookupAll call in batch mode.
+    private static final int BATCH_LOOKUPS = 4096;
+
     /**
      * A reference to the PlaceDB object to be processed.
      * Globally available to the command-processing methods.
@@ -178,7 +199,15 @@ public class PDConsoleIO {
             return; // Dialog was cancelled.
         }
 
-        theDatabase.listAllPlaces(prefix);
+        System.out.println("Places with zipcode prefix " + prefix + ":");
+        Iterator<Place> found = theDatabase.placesWithPrefix(prefix).iterator();
+        boolean any = found.hasNext();
+        while (found.hasNext()) {
+            System.out.println(found.next());
+        }
+        if (!any) {
+            System.out.println("No places found with prefix " + prefix);
+        }
 
     }
 
@@ -206,7 +235,7 @@ public class PDConsoleIO {
         if (distance == -1) {
             System.out.println("Location information is unavailable for one or both of the zipcodes.");
         } else {
-            System.out.println("The distance between " + zipcode1 + " and " + zipcode2 + " is: " + distance);
+            System.out.printf("The distance between %s and %s is: %.2f miles%n", zipcode1, zipcode2, distance);
         }
     }
 
@@ -218,18 +247,15 @@ public class PDConsoleIO {
     private void doLookupByTownName() {
         System.out.print("Enter Town Name: ");
         String townName = scIn.nextLine();
-        int index = theDatabase.binarySearchByTownName(townName, 0, theDatabase.getSize() - 1);
-        if (index == -1) {
-            index = theDatabase.sequentialSearchByTownName(townName);
-            if (index == -1) {
-                System.out.println("Town not found.");
-                return;
-            }
+        List<Place> found = theDatabase.lookupByTownName(townName);
+        if (found.isEmpty()) {
+            System.out.println("Town not found.");
+            return;
         }
 
-        Place place = theDatabase.getPlace(index);
-        System.out.println("Found: " + place);
-        System.out.println("Index in list: " + index);
+        for (Place place : found) {
+            System.out.println("Found: " + place);
+        }
         int rank = theDatabase.rankByPopulation(townName);
         if (rank != -1) {
             System.out.println("Rank by population: " + rank);
@@ -241,6 +267,9 @@ public class PDConsoleIO {
     private void doSaveAndExit() {
         try {
             theDatabase.saveToFile("database.out");
+            if (theDatabase instanceof JournaledPlaceDB) {
+                ((JournaledPlaceDB) theDatabase).close();
+            }
             System.out.println("Database saved to database.out");
         } catch (IOException e) {
             System.out.println("Error saving database: " + e.getMessage());
@@ -250,18 +279,233 @@ public class PDConsoleIO {
     }
 
 
+    /**
+     * Reads commands, one per line, and writes their results. Blank lines and
+     * lines starting with # are skipped. The commands are:
+     * <pre>
+     *   lookup ZIP [ZIP...]                 the place for each zipcode
+     *   prefix PREFIX                       the places whose zipcode starts with PREFIX
+     *   distance ZIP1 ZIP2 [miles|kilometers]
+     *   town TOWN NAME                      the places in a town, and its population rank
+     *   rank TOWN NAME                      the population rank of a town
+     *   add ZIP,TOWN,STATE[,LAT,LON[,POPULATION]]
+     *   sort                                sort the database by town name
+     *   save FILE                           save the database
+     * </pre>
+     * Consecutive lookup commands are answered together with one lookupAll call.
+     * An invalid command, or one the database fails on, writes an error line
+     * and processing continues.
+     *
+     * @param thePlaceDatabase the database to run the commands against
+     * @param in               where to read commands
+     * @param out              where to write results; flushed at the end, not closed
+     * @return the number of commands run
+     * @throws IOException if reading or writing fails
+     */
+    public int processBatch(PlaceDB thePlaceDatabase, BufferedReader in, Writer out) throws IOException {
+        theDatabase = thePlaceDatabase;
+        List<String> pendingLookups = new ArrayList<>();
+        int commands = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            commands++;
+            String[] words = line.split("\\s+");
+            String command = words[0].toLowerCase(Locale.ROOT);
+            String argument = line.substring(words[0].length()).trim();
+            if (command.equals("lookup")) {
+                for (int i = 1; i < words.length; i++) {
+                    pendingLookups.add(words[i]);
+                }
+                if (pendingLookups.size() >= BATCH_LOOKUPS) {
+                    writeLookups(pendingLookups, out);
+                }
+                continue;
+            }
+            writeLookups(pendingLookups, out);
+            try {
+                runBatchCommand(command, words, argument, line, out);
+            } catch (RuntimeException e) {
+                out.write("*** Error in: " + line + ": " + e + "\n");
+            }
+        }
+        writeLookups(pendingLookups, out);
+        out.flush();
+        return commands;
+    }
+
+    private void runBatchCommand(String command, String[] words, String argument, String line, Writer out)
+            throws IOException {
+        switch (command) {
+            case "prefix":
+                batchListAllPlaces(argument, out);
+                break;
+            case "distance":
+                batchDistance(words, out);
+                break;
+            case "town":
+                batchLookupByTownName(argument, out);
+                break;
+            case "rank":
+                batchRank(argument, out);
+                break;
+            case "add":
+                batchAddPlace(argument, out);
+                break;
+            case "sort":
+                theDatabase.sortByTownName();
+                out.write("Database sorted by town name.\n");
+                break;
+            case "save":
+                String fileName = argument.isEmpty() ? "database.out" : argument;
+                try {
+                    theDatabase.saveToFile(fileName);
+                    out.write("Database saved to " + fileName + "\n");
+                } catch (IOException e) {
+                    out.write("Error saving database: " + e.getMessage() + "\n");
+                }
+                break;
+            default:
+                out.write("*** Invalid command: " + line + "\n");
+        }
+    }
+
+    private void writeLookups(List<String> zipcodes, Writer out) throws IOException {
+        if (zipcodes.isEmpty()) {
+            return;
+        }
+        Map<String, Place> found;
+        try {
+            found = theDatabase.lookupAll(zipcodes);
+        } catch (RuntimeException e) {
+            found = null; // Looked up one at a time below, so only the zipcodes that fail report it.
+        }
+        for (String zipcode : zipcodes) {
+            Place p;
+            try {
+                p = found != null ? found.get(zipcode) : theDatabase.lookupAll(List.of(zipcode)).get(zipcode);
+            } catch (RuntimeException e) {
+                out.write("*** Error in: lookup " + zipcode + ": " + e + "\n");
+                continue;
+            }
+            out.write(p != null ? p.toString() : zipcode + ": No such zipcode");
+            out.write('\n');
+        }
+        zipcodes.clear();
+    }
+
+    private void batchListAllPlaces(String prefix, Writer out) throws IOException {
+        if (prefix.isEmpty()) {
+            out.write("*** prefix needs a zipcode prefix\n");
+            return;
+        }
+        Iterator<Place> found = theDatabase.placesWithPrefix(prefix).iterator();
+        if (!found.hasNext()) {
+            out.write("No places found with prefix " + prefix + "\n");
+        }
+        while (found.hasNext()) {
+            out.write(found.next().toString());
+            out.write('\n');
+        }
+    }
+
+    private void batchDistance(String[] words, Writer out) throws IOException {
+        if (words.length < 3) {
+            out.write("*** distance needs two zipcodes\n");
+            return;
+        }
+        DistanceUnit unit = DistanceUnit.MILES;
+        if (words.length > 3) {
+            try {
+                unit = DistanceUnit.valueOf(words[3].toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                out.write("*** unit must be miles or kilometers\n");
+                return;
+            }
+        }
+        double distance = theDatabase.distance(words[1], words[2], unit);
+        if (distance == -1) {
+            out.write(words[1] + " " + words[2] + ": Location information is unavailable\n");
+        } else {
+            out.write(String.format("%s %s %.2f %s%n", words[1], words[2], distance,
+                    unit.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    private void batchLookupByTownName(String townName, Writer out) throws IOException {
+        List<Place> found = theDatabase.lookupByTownName(townName);
+        if (found.isEmpty()) {
+            out.write(townName + ": Town not found.\n");
+            return;
+        }
+        for (Place place : found) {
+            out.write("Found: " + place + "\n");
+        }
+        batchRank(townName, out);
+    }
+
+    private void batchRank(String townName, Writer out) throws IOException {
+        int rank = theDatabase.rankByPopulation(townName);
+        out.write(rank != -1 ? townName + ": Rank by population: " + rank + "\n"
+                : townName + ": Population data not available for this town.\n");
+    }
+
+    private void batchAddPlace(String argument, Writer out) throws IOException {
+        String[] fields = argument.split(",", -1);
+        Place newPlace;
+        try {
+            if (fields.length == 3) {
+                newPlace = new Place(fields[0].trim(), fields[1].trim(), fields[2].trim());
+            } else if (fields.length == 5) {
+                newPlace = new LocatedPlace(fields[0].trim(), fields[1].trim(), fields[2].trim(),
+                        Double.parseDouble(fields[3].trim()), Double.parseDouble(fields[4].trim()));
+            } else if (fields.length == 6) {
+                newPlace = new PopulatedPlace(fields[0].trim(), fields[1].trim(), fields[2].trim(),
+                        Double.parseDouble(fields[3].trim()), Double.parseDouble(fields[4].trim()),
+                        Integer.parseInt(fields[5].trim()));
+            } else {
+                out.write("*** add needs ZIP,TOWN,STATE[,LAT,LON[,POPULATION]]\n");
+                return;
+            }
+        } catch (NumberFormatException e) {
+            out.write("*** Invalid number in: " + argument + "\n");
+            return;
+        }
+        if (theDatabase.addAll(List.of(newPlace)) == 1) {
+            out.write("Added " + newPlace.getZipcode() + "\n");
+        } else {
+            out.write("the place with the zipcode " + newPlace.getZipcode() + " already exist\n");
+        }
+    }
+
     public static void main(String args[]) {
         PDConsoleIO ui = new PDConsoleIO();
-        PlaceDB pd = new MyPlaceDatabase();
+        // Every change is logged to database.out.log as it is made, so saving is quick and a crash loses nothing.
+        JournaledPlaceDB pd = new JournaledPlaceDB(new MyPlaceDatabase(), "database.out");
         try {
-            File file = new File("database.out");
-            if (file.exists()) {
+            if (pd.hasSavedState()) {
                 pd.loadFromFile("database.out");
             } else {
-                pd.readZipCodes();            }
+                pd.readZipCodes();
+            }
         } catch (IOException | ClassNotFoundException e) {
             System.out.println("Error loading database: " + e.getMessage());
         }
+        if (args.length > 0 && args[0].equals("--batch")) {
+            boolean fromStdin = args.length < 2 || args[1].equals("-");
+            try (InputStream input = fromStdin ? System.in : new FileInputStream(args[1])) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16);
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+                ui.processBatch(pd, in, out);
+                pd.close();
+            } catch (IOException e) {
+                System.out.println("Error in batch mode: " + e.getMessage());
+            }
+            return;
+        }
         ui.processCommands(pd);
     }
 
@@ -1,6 +1,9 @@
 import java.io.Serializable;
 
 public class Place implements Serializable {
+    // Pinned to the value of the first release so old database.out files still load.
+    private static final long serialVersionUID = 2671523807447192959L;
+
     private String zipcode;
     private String town;
     private String state;
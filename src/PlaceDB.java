@@ -1,5 +1,9 @@
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 /** The interface for the places database.
  */
@@ -20,30 +24,163 @@ public interface PlaceDB {
      */
     public void addPlace(Place newPlace);
 
+    /** Add many entries in one call. Places that are null, have no zipcode or
+     have a zipcode already in the database are skipped without printing anything.
+     @param newPlaces The Place objects to be added
+     @return The number of places added
+     */
+    public default int addAll(Collection<? extends Place> newPlaces) {
+        int added = 0;
+        for (Place place : newPlaces) {
+            if (place != null && place.getZipcode() != null && lookupAll(List.of(place.getZipcode())).isEmpty()) {
+                addPlace(place);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /** Look up many zipcodes in one call, without printing anything.
+     @param zipcodes The zipcodes to look up
+     @return The places found, keyed by the zipcode as given and in the order given;
+     zipcodes that are not in the database are left out
+     */
+    public default Map<String, Place> lookupAll(Collection<String> zipcodes) {
+        Map<String, Place> found = new LinkedHashMap<>();
+        for (String zipcode : zipcodes) {
+            if (zipcode != null && !zipcode.isEmpty()) {
+                Place place = lookupByZipcode(zipcode);
+                if (place != null) {
+                    found.put(zipcode, place);
+                }
+            }
+        }
+        return found;
+    }
+
     /** List all places whose zipcode start with prefix.
      @param prefix prefix of zipcodes to list
      @return none
      */
     public void listAllPlaces(String prefix);
 
+    /** Return all places whose zipcode start with prefix, in zipcode order.
+     @param prefix prefix of zipcodes to return
+     @return A lazy stream of the places
+     */
+    public Stream<Place> placesWithPrefix(String prefix);
 
-    /** Return the distance between two zipcodes
+
+    /** Return the great-circle distance in miles between two zipcodes
      @param zip1, zip2
      @return distance between zip1 and zip2, -1 if either has no location.
      */
     public double distance(String zip1, String zip2);
 
+    /** Return the great-circle distance between two zipcodes
+     @param zip1, zip2
+     @param unit The unit of the result
+     @return distance between zip1 and zip2, -1 if either has no location.
+     */
+    public double distance(String zip1, String zip2, DistanceUnit unit);
+
+    /** Return the distances from one zipcode to many
+     @param fromZip The origin
+     @param toZips The destinations
+     @param unit The unit of the results
+     @return distance to each destination, -1 where either has no location.
+     */
+    public double[] distances(String fromZip, List<String> toZips, DistanceUnit unit);
+
+    /** Return the distance from every origin to every destination
+     @param fromZips The origins
+     @param toZips The destinations
+     @param unit The unit of the results
+     @return matrix[i][j] is the distance from fromZips[i] to toZips[j], -1 where either has no location.
+     */
+    public double[][] distanceMatrix(List<String> fromZips, List<String> toZips, DistanceUnit unit);
+
+    /** Find the located places closest to a location.
+     @param latitude, longitude The location, in degrees
+     @param k The number of places wanted
+     @return Up to k places, nearest first
+     */
+    public List<LocatedPlace> findNearest(double latitude, double longitude, int k);
+
+    /** Find the located places within a great-circle distance of a location.
+     @param latitude, longitude The location, in degrees
+     @param radiusMiles The radius, in miles
+     @return The places in range, nearest first
+     */
+    public List<LocatedPlace> findWithinRadius(double latitude, double longitude, double radiusMiles);
+
     public void sortByTownName();
 
     public int binarySearchByTownName(String townName, int low, int high);
     public int rankByPopulation(String townName);
 
+    /** Find the most populous places.
+     @param state The state to keep, in any case, or null for every state
+     @param k The most places wanted
+     @return Up to k populated places, most populous first, ties in the order they were added
+     */
+    public List<PopulatedPlace> topByPopulation(String state, int k);
+
+    /** Find the places whose population is in a range.
+     @param state The state to keep, in any case, or null for every state
+     @param minPopulation, maxPopulation The range, inclusive
+     @return The populated places in range, most populous first, ties in the order they were added
+     */
+    public List<PopulatedPlace> findByPopulation(String state, int minPopulation, int maxPopulation);
+
     public int getSize();
     public Place getPlace(int index);
 
     public void saveToFile(String s) throws IOException;
     public void loadFromFile(String s) throws IOException, ClassNotFoundException;
-    public void readZipCodes() throws FileNotFoundException;
+    public void readZipCodes() throws IOException;
     public int sequentialSearchByTownName(String townName);
-//    public Place lookupByName(String townName);
+
+    /** Look up every place in a town, without requiring the database to be sorted.
+     @param townName The town name, in any case
+     @return The places in that town, empty if there are none
+     */
+    public List<Place> lookupByTownName(String townName);
+
+    /** Complete a partly typed town name, for autocomplete.
+     @param prefix The start of the town name, in any case
+     @param state The state to keep, or null for every state
+     @param k The most matches wanted
+     @return Up to k towns whose names start with prefix, most populous first
+     */
+    public List<TownMatch> completeTownName(String prefix, String state, int k);
+
+    /** Find the towns whose names are closest to a possibly misspelt town name.
+     @param query The town name, in any case
+     @param state The state to keep, or null for every state
+     @param k The most matches wanted
+     @return Up to k towns within a small edit distance, closest first, then most populous
+     */
+    public List<TownMatch> searchTownName(String query, String state, int k);
+
+    /** Population totals of every state, kept up to date as places are added.
+     @return The totals of each state, in state order
+     */
+    public Map<String, PopulationStats> populationByState();
+
+    /** Population totals of every zipcode prefix, kept up to date as places are added.
+     @param digits The length of the prefix, 1 to DemographicRollup.MAX_PREFIX_DIGITS
+     @return The totals of each prefix of that length, in prefix order
+     */
+    public Map<String, PopulationStats> populationByZipPrefix(int digits);
+
+    /** Population totals of the populated places within a great-circle distance of a location.
+     @param latitude, longitude The location, in degrees
+     @param radiusMiles The radius, in miles
+     @return The totals of the places found by findWithinRadius
+     */
+    public default PopulationStats populationWithinRadius(double latitude, double longitude, double radiusMiles) {
+        return DemographicRollup.aggregate(radiusMiles + " miles of " + latitude + "," + longitude,
+                findWithinRadius(latitude, longitude, radiusMiles));
+    }
 }
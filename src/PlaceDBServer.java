@@ -0,0 +1,459 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Embedded HTTP service answering place queries as JSON, built on the JDK's
+ * HttpServer. All endpoints are GET:
+ * <pre>
+ *   /zip/{zipcode}                       the place, or 404
+ *   /prefix/{prefix}                     the places whose zipcode starts with prefix
+ *   /distance?from=..&amp;to=..[&amp;unit=miles|kilometers]
+ *   /town/{town}                         the places in a town
+ *   /rank/{town}                         the population rank of a town, or 404
+ *   /complete/{prefix}[?state=..&amp;k=..]  towns whose names start with prefix, for autocomplete
+ *   /search/{town}[?state=..&amp;k=..]      towns whose names are close to a misspelt name
+ *   /population/state[?k=..]             population totals of each state, or of the k most populous
+ *   /population/prefix/{digits}[?k=..]   population totals of each zipcode prefix of 1 to 3 digits
+ *   /population/radius?lat=..&amp;lon=..&amp;miles=..  population totals around a location
+ *   /population/top[?state=..&amp;k=..]     the most populous places
+ *   /population/range?min=..&amp;max=..[&amp;state=..]  the places with a population in range, most populous first
+ * </pre>
+ * Handlers run on virtual threads when the JDK has them (Java 21 and later)
+ * and on a cached thread pool otherwise. Requests are served concurrently,
+ * so the database must allow concurrent reads; ConcurrentPlaceDatabase does.
+ *
+ * Run it from the directory holding the CSV files:
+ * java PlaceDBServer [port] [database file]
+ * Without a database file it reads the CSV files.
+ */
+public class PlaceDBServer {
+    public static final int DEFAULT_PORT = 8080;
+    // The most places a prefix or town query returns, so a one-digit prefix cannot produce megabytes.
+    public static final int MAX_RESULTS = 1_000;
+
+    private final PlaceDB db;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Creates the server; call start to accept requests.
+     *
+     * @param db   the database to query, which must allow concurrent reads
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public PlaceDBServer(PlaceDB db, int port) throws IOException {
+        this.db = db;
+        // The JDK server writes headers and body separately; with Nagle's algorithm on, every
+        // response then waits for the client's delayed ACK, about 40 ms. Must be set before the
+        // first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/zip/", exchange -> respond(exchange, this::lookupZipcode));
+        server.createContext("/prefix/", exchange -> respond(exchange, this::listPrefix));
+        server.createContext("/distance", exchange -> respond(exchange, this::distance));
+        server.createContext("/town/", exchange -> respond(exchange, this::lookupTown));
+        server.createContext("/rank/", exchange -> respond(exchange, this::rank));
+        server.createContext("/complete/", exchange -> respond(exchange, this::completeTown));
+        server.createContext("/search/", exchange -> respond(exchange, this::searchTown));
+        server.createContext("/population/state", exchange -> respond(exchange, this::populationByState));
+        server.createContext("/population/prefix/", exchange -> respond(exchange, this::populationByPrefix));
+        server.createContext("/population/radius", exchange -> respond(exchange, this::populationWithinRadius));
+        server.createContext("/population/top", exchange -> respond(exchange, this::topByPopulation));
+        server.createContext("/population/range", exchange -> respond(exchange, this::findByPopulation));
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        ConcurrentPlaceDatabase db = new ConcurrentPlaceDatabase();
+        if (args.length > 1) {
+            db.loadFromFile(args[1]);
+        } else {
+            db.readZipCodes();
+        }
+        PlaceDBServer server = new PlaceDBServer(db, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+        System.out.println("Serving " + db.getSize() + " places on port " + server.getPort());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for those in progress, then stops the handler threads.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * @return the port the server listens on, useful when it was created with port 0
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Uses Executors.newVirtualThreadPerTaskExecutor when it exists. It is looked up
+     * reflectively so the class still compiles and runs on Java 17.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // Not available, or a preview feature that is not enabled.
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * What a handler returns: an HTTP status and a JSON body.
+     */
+    private static final class Response {
+        final int status;
+        final String json;
+
+        Response(int status, String json) {
+            this.status = status;
+            this.json = json;
+        }
+    }
+
+    private interface Endpoint {
+        Response handle(String path, Map<String, String> query);
+    }
+
+    private static void respond(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        Response response;
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                response = error(405, "only GET is supported");
+            } else {
+                String context = exchange.getHttpContext().getPath();
+                String path;
+                Map<String, String> query;
+                try {
+                    path = decodePath(exchange.getRequestURI().getRawPath().substring(context.length()));
+                    query = query(exchange.getRequestURI().getRawQuery());
+                } catch (IllegalArgumentException e) {
+                    path = null;
+                    query = null;
+                }
+                response = path == null ? error(400, "malformed percent-encoding in the URL")
+                        : endpoint.handle(path, query);
+            }
+        } catch (RuntimeException e) {
+            response = error(500, String.valueOf(e));
+        }
+        byte[] body = response.json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private Response lookupZipcode(String zipcode, Map<String, String> query) {
+        if (zipcode.isEmpty()) {
+            return error(400, "missing zipcode");
+        }
+        Place place = db.lookupAll(List.of(zipcode)).get(zipcode);
+        return place == null ? error(404, "no place with zipcode " + zipcode) : new Response(200, toJson(place));
+    }
+
+    private Response listPrefix(String prefix, Map<String, String> query) {
+        if (prefix.isEmpty()) {
+            return error(400, "missing prefix");
+        }
+        Iterator<Place> found = db.placesWithPrefix(prefix).limit(MAX_RESULTS).iterator();
+        StringBuilder json = new StringBuilder("[");
+        while (found.hasNext()) {
+            json.append(toJson(found.next())).append(found.hasNext() ? "," : "");
+        }
+        return new Response(200, json.append(']').toString());
+    }
+
+    private Response distance(String path, Map<String, String> query) {
+        String from = query.get("from");
+        String to = query.get("to");
+        if (from == null || to == null) {
+            return error(400, "from and to are required");
+        }
+        DistanceUnit unit;
+        try {
+            unit = DistanceUnit.valueOf(query.getOrDefault("unit", "miles").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return error(400, "unit must be miles or kilometers");
+        }
+        double distance = db.distance(from, to, unit);
+        if (distance < 0) {
+            return error(404, "no location for " + from + " or " + to);
+        }
+        return new Response(200, "{\"from\":" + quote(from) + ",\"to\":" + quote(to)
+                + ",\"unit\":" + quote(unit.name().toLowerCase(Locale.ROOT)) + ",\"distance\":" + distance + "}");
+    }
+
+    private Response lookupTown(String town, Map<String, String> query) {
+        if (town.isEmpty()) {
+            return error(400, "missing town");
+        }
+        return new Response(200, db.lookupByTownName(town).stream().limit(MAX_RESULTS)
+                .map(PlaceDBServer::toJson).collect(Collectors.joining(",", "[", "]")));
+    }
+
+    private Response rank(String town, Map<String, String> query) {
+        int rank = db.rankByPopulation(town);
+        if (rank < 0) {
+            return error(404, "no population for town " + town);
+        }
+        return new Response(200, "{\"town\":" + quote(town) + ",\"rank\":" + rank + "}");
+    }
+
+    private Response completeTown(String prefix, Map<String, String> query) {
+        if (prefix.isEmpty()) {
+            return error(400, "missing prefix");
+        }
+        return townMatches(query, (state, k) -> db.completeTownName(prefix, state, k));
+    }
+
+    private Response searchTown(String town, Map<String, String> query) {
+        if (town.isEmpty()) {
+            return error(400, "missing town");
+        }
+        return townMatches(query, (state, k) -> db.searchTownName(town, state, k));
+    }
+
+    private interface TownSearch {
+        List<TownMatch> search(String state, int k);
+    }
+
+    private static Response townMatches(Map<String, String> query, TownSearch search) {
+        int k;
+        try {
+            k = Integer.parseInt(query.getOrDefault("k", "10"));
+        } catch (NumberFormatException e) {
+            return error(400, "k must be a number");
+        }
+        if (k < 1 || k > MAX_RESULTS) {
+            return error(400, "k must be from 1 to " + MAX_RESULTS);
+        }
+        return new Response(200, search.search(query.get("state"), k).stream()
+                .map(PlaceDBServer::toJson).collect(Collectors.joining(",", "[", "]")));
+    }
+
+    private Response populationByState(String path, Map<String, String> query) {
+        return populationGroups(query, db.populationByState());
+    }
+
+    private Response populationByPrefix(String digits, Map<String, String> query) {
+        int length;
+        try {
+            length = Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            return error(400, "the prefix length must be a number");
+        }
+        if (length < 1 || length > DemographicRollup.MAX_PREFIX_DIGITS) {
+            return error(400, "the prefix length must be from 1 to " + DemographicRollup.MAX_PREFIX_DIGITS);
+        }
+        return populationGroups(query, db.populationByZipPrefix(length));
+    }
+
+    /**
+     * Writes every group in key order, or with ?k= the k most populous.
+     */
+    private static Response populationGroups(Map<String, String> query, Map<String, PopulationStats> groups) {
+        Collection<PopulationStats> selected = groups.values();
+        if (query.containsKey("k")) {
+            int k;
+            try {
+                k = Integer.parseInt(query.get("k"));
+            } catch (NumberFormatException e) {
+                return error(400, "k must be a number");
+            }
+            if (k < 1) {
+                return error(400, "k must be at least 1");
+            }
+            selected = PopulationStats.largest(selected, k);
+        }
+        return new Response(200, selected.stream()
+                .map(PlaceDBServer::toJson).collect(Collectors.joining(",", "[", "]")));
+    }
+
+    private Response populationWithinRadius(String path, Map<String, String> query) {
+        double latitude;
+        double longitude;
+        double miles;
+        try {
+            latitude = Double.parseDouble(query.get("lat"));
+            longitude = Double.parseDouble(query.get("lon"));
+            miles = Double.parseDouble(query.get("miles"));
+        } catch (NullPointerException | NumberFormatException e) {
+            return error(400, "lat, lon and miles are required numbers");
+        }
+        if (miles < 0) {
+            return error(400, "miles must not be negative");
+        }
+        return new Response(200, toJson(db.populationWithinRadius(latitude, longitude, miles)));
+    }
+
+    private Response topByPopulation(String path, Map<String, String> query) {
+        int k;
+        try {
+            k = Integer.parseInt(query.getOrDefault("k", "10"));
+        } catch (NumberFormatException e) {
+            return error(400, "k must be a number");
+        }
+        if (k < 1 || k > MAX_RESULTS) {
+            return error(400, "k must be from 1 to " + MAX_RESULTS);
+        }
+        return new Response(200, db.topByPopulation(query.get("state"), k).stream()
+                .map(PlaceDBServer::toJson).collect(Collectors.joining(",", "[", "]")));
+    }
+
+    private Response findByPopulation(String path, Map<String, String> query) {
+        int min;
+        int max;
+        try {
+            min = Integer.parseInt(query.get("min"));
+            max = Integer.parseInt(query.get("max"));
+        } catch (NumberFormatException e) {
+            return error(400, "min and max are required numbers");
+        }
+        return new Response(200, db.findByPopulation(query.get("state"), min, max).stream().limit(MAX_RESULTS)
+                .map(PlaceDBServer::toJson).collect(Collectors.joining(",", "[", "]")));
+    }
+
+    private static Response error(int status, String message) {
+        return new Response(status, "{\"error\":" + quote(message) + "}");
+    }
+
+    /**
+     * Decodes the %XX escapes of a raw path as UTF-8. Unlike URLDecoder, which
+     * decodes form data, it leaves '+' alone, since in a path it is a plus sign.
+     *
+     * @throws IllegalArgumentException if a '%' is not followed by two hex digits
+     */
+    static String decodePath(String rawPath) {
+        if (rawPath.indexOf('%') < 0) {
+            return rawPath;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(rawPath.length());
+        int i = 0;
+        while (i < rawPath.length()) {
+            char c = rawPath.charAt(i);
+            if (c == '%') {
+                int high = i + 2 < rawPath.length() ? Character.digit(rawPath.charAt(i + 1), 16) : -1;
+                int low = high < 0 ? -1 : Character.digit(rawPath.charAt(i + 2), 16);
+                if (low < 0) {
+                    throw new IllegalArgumentException("malformed escape at position " + i + " of " + rawPath);
+                }
+                bytes.write(high << 4 | low);
+                i += 3;
+            } else {
+                int end = rawPath.indexOf('%', i);
+                end = end < 0 ? rawPath.length() : end;
+                bytes.writeBytes(rawPath.substring(i, end).getBytes(StandardCharsets.UTF_8));
+                i = end;
+            }
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Writes a place as a JSON object with the fields its class has.
+     */
+    static String toJson(Place place) {
+        StringBuilder json = new StringBuilder("{\"zipcode\":").append(quote(place.getZipcode()))
+                .append(",\"town\":").append(quote(place.getTown()))
+                .append(",\"state\":").append(quote(place.getState()));
+        if (place instanceof LocatedPlace) {
+            LocatedPlace located = (LocatedPlace) place;
+            json.append(",\"latitude\":").append(located.getLatitude())
+                    .append(",\"longitude\":").append(located.getLongitude());
+        }
+        if (place instanceof PopulatedPlace) {
+            PopulatedPlace populated = (PopulatedPlace) place;
+            json.append(",\"population\":").append(populated.getPopulation())
+                    .append(",\"males\":").append(populated.getMales())
+                    .append(",\"females\":").append(populated.getFemales());
+        }
+        return json.append('}').toString();
+    }
+
+    static String toJson(TownMatch match) {
+        return "{\"town\":" + quote(match.getTown()) + ",\"state\":" + quote(match.getState())
+                + ",\"population\":" + match.getPopulation() + ",\"editDistance\":" + match.getEditDistance()
+                + ",\"zipcodes\":" + match.getZipcodes().stream().map(PlaceDBServer::quote)
+                .collect(Collectors.joining(",", "[", "]")) + "}";
+    }
+
+    static String toJson(PopulationStats stats) {
+        return "{\"key\":" + quote(stats.getKey()) + ",\"places\":" + stats.getPlaces()
+                + ",\"population\":" + stats.getPopulation() + ",\"males\":" + stats.getMales()
+                + ",\"females\":" + stats.getFemales() + ",\"min\":" + stats.getMinPopulation()
+                + ",\"max\":" + stats.getMaxPopulation() + ",\"largestZipcode\":" + quote(stats.getLargestZipcode())
+                + ",\"average\":" + number(stats.getAveragePopulation())
+                + ",\"sexRatio\":" + number(stats.getSexRatio()) + "}";
+    }
+
+    /**
+     * JSON has no NaN, so an undefined average or ratio is written as null.
+     */
+    private static String number(double value) {
+        return Double.isNaN(value) ? "null" : String.valueOf(value);
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,460 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of changes to a place database, the write-ahead log of
+ * JournaledPlaceDB. After a 16 byte header ("PLWL", a version and a long
+ * generation) the file is a sequence of records:
+ * <pre>
+ *   int length      of the body
+ *   int crc         CRC-32 of the body
+ *   body            byte type, then for ADD an int count and that many places
+ * </pre>
+ * A READ_ZIP_CODES record, which is only ever first, means the records apply
+ * to the database read from the CSV files rather than to a snapshot.
+ * A record whose length or checksum does not match, as left by a crash in
+ * the middle of a write, ends the log; open cuts it off. The generation
+ * starts at 0 and is set by truncate, so JournaledPlaceDB can tell which
+ * snapshot the records apply to. Version 1 logs, which have an 8 byte header
+ * and no generation, are read as generation 0.
+ *
+ * Appending is split in two so concurrent writers share fsyncs (group
+ * commit): append encodes a record into a buffer and returns its sequence
+ * number, and awaitDurable returns once the record is on disk. The first
+ * waiter writes and forces everything buffered so far while the others
+ * wait for it, so n writers arriving together cost one fsync, not n.
+ */
+public class PlaceLog implements Closeable {
+    public static final int MAGIC = 0x504C574C; // "PLWL"
+    public static final int VERSION = 2;
+    public static final byte ADD = 1;
+    public static final byte SORT_BY_TOWN_NAME = 2;
+    public static final byte READ_ZIP_CODES = 3;
+    public static final int HEADER_BYTES = 16;
+
+    private static final int VERSION_1_HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+
+    // Records appended but not yet written; swapped out by the thread that flushes.
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appended;
+    private long durable;
+    private boolean flushing;
+    // Set when a write or fsync fails; the file may then end in a partial record, so the log takes no more.
+    private IOException failure;
+    private long generation;
+    private long size;
+    private long syncs;
+
+    /**
+     * One record read back from the log.
+     */
+    public static final class Record {
+        private final byte type;
+        private final List<Place> places;
+
+        Record(byte type, List<Place> places) {
+            this.type = type;
+            this.places = places;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * @return the places of an ADD record, empty for other records
+         */
+        public List<Place> getPlaces() {
+            return places;
+        }
+    }
+
+    private PlaceLog(File file, FileChannel channel, long generation, long size) {
+        this.file = file;
+        this.channel = channel;
+        this.generation = generation;
+        this.size = size;
+    }
+
+    /**
+     * Opens a log for appending, creating it if it does not exist, and reads
+     * the records already in it. A damaged tail is cut off.
+     *
+     * @param file    the log file
+     * @param records receives the records in the log, oldest first
+     * @return the open log
+     * @throws IOException if the file cannot be opened or is not a log
+     */
+    public static PlaceLog open(File file, List<Record> records) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long generation = 0;
+            long end;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // Reads until full or the end of the file.
+            }
+            if (header.position() >= VERSION_1_HEADER_BYTES && header.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a place log");
+            }
+            int version = header.position() >= VERSION_1_HEADER_BYTES ? header.getInt(4) : VERSION;
+            if (version == 1) {
+                end = read(file, channel, VERSION_1_HEADER_BYTES, records);
+            } else if (version != VERSION) {
+                throw new IOException(file + " has unsupported log version " + version);
+            } else if (header.position() < HEADER_BYTES) {
+                // New, or a crash cut the header short, so there can be no records.
+                writeHeader(channel, 0);
+                end = HEADER_BYTES;
+            } else {
+                generation = header.getLong(8);
+                end = read(file, channel, HEADER_BYTES, records);
+            }
+            if (end < channel.size()) {
+                channel.truncate(end);
+                channel.force(true);
+            }
+            channel.position(end);
+            return new PlaceLog(file, channel, generation, end);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putLong(generation);
+        header.flip();
+        channel.truncate(0);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(true);
+    }
+
+    /**
+     * Reads every intact record after the header and returns the offset just past the last one.
+     */
+    private static long read(File file, FileChannel channel, int headerBytes, List<Record> records) throws IOException {
+        if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException(file + " is too large to replay");
+        }
+        ByteBuffer contents = ByteBuffer.allocate((int) channel.size());
+        while (contents.hasRemaining() && channel.read(contents, contents.position()) >= 0) {
+            // Reads until full.
+        }
+        int position = headerBytes;
+        CRC32 crc = new CRC32();
+        while (contents.limit() - position >= RECORD_HEADER_BYTES) {
+            int length = contents.getInt(position);
+            int checksum = contents.getInt(position + 4);
+            if (length < 1 || length > contents.limit() - position - RECORD_HEADER_BYTES) {
+                break;
+            }
+            byte[] body = new byte[length];
+            contents.get(position + RECORD_HEADER_BYTES, body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            records.add(decode(body));
+            position += RECORD_HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    /**
+     * Buffers a record of places being added. It is not durable until awaitDurable returns.
+     *
+     * @param places the places; null places and places without a zipcode, which no database adds, are left out
+     * @return the sequence number to pass to awaitDurable
+     */
+    public long appendAdd(Collection<? extends Place> places) {
+        List<Place> present = new ArrayList<>(places.size());
+        for (Place place : places) {
+            if (place != null && place.getZipcode() != null) {
+                present.add(place);
+            }
+        }
+        return append(ADD, present);
+    }
+
+    /**
+     * Buffers a record of the database being sorted by town name.
+     *
+     * @return the sequence number to pass to awaitDurable
+     */
+    public long appendSortByTownName() {
+        return append(SORT_BY_TOWN_NAME, List.of());
+    }
+
+    /**
+     * Buffers a record of the database being read from the CSV files.
+     *
+     * @return the sequence number to pass to awaitDurable
+     */
+    public long appendReadZipCodes() {
+        return append(READ_ZIP_CODES, List.of());
+    }
+
+    private long append(byte type, List<Place> places) {
+        byte[] body = encode(type, places);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        lock.lock();
+        try {
+            DataOutputStream out = new DataOutputStream(pending);
+            out.writeInt(body.length);
+            out.writeInt((int) crc.getValue());
+            out.write(body);
+            return ++appended;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Cannot happen writing to memory.
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a record, and every record before it, has been written and forced to disk.
+     *
+     * @param sequence what append returned
+     * @throws IOException if writing or forcing fails
+     */
+    public void awaitDurable(long sequence) throws IOException {
+        lock.lock();
+        try {
+            while (durable < sequence) {
+                if (failure != null) {
+                    throw new IOException("an earlier write to " + file + " failed", failure);
+                }
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                // This thread writes everything buffered so far, outside the lock so others can keep appending.
+                flushing = true;
+                ByteArrayOutputStream batch = pending;
+                pending = new ByteArrayOutputStream();
+                long upTo = appended;
+                boolean written = false;
+                lock.unlock();
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                    written = true;
+                } catch (IOException e) {
+                    lock.lock();
+                    failure = e;
+                    lock.unlock();
+                    throw e;
+                } finally {
+                    lock.lock();
+                    flushing = false;
+                    if (written) {
+                        durable = upTo;
+                        size += batch.size();
+                        syncs++;
+                    }
+                    flushed.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes every record appended so far durable.
+     *
+     * @throws IOException if writing or forcing fails
+     */
+    public void sync() throws IOException {
+        lock.lock();
+        long last;
+        try {
+            last = appended;
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(last);
+    }
+
+    /**
+     * Empties the log after its changes have been saved in a snapshot, and
+     * starts a new generation. The caller must make sure nothing is appended
+     * while this runs.
+     *
+     * @param generation the generation of the snapshot the next records apply to
+     * @throws IOException if the file cannot be truncated
+     */
+    public void truncate(long generation) throws IOException {
+        sync();
+        lock.lock();
+        try {
+            writeHeader(channel, generation);
+            channel.position(HEADER_BYTES);
+            this.generation = generation;
+            size = HEADER_BYTES;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the generation of the snapshot the records apply to, 0 until the first truncate
+     */
+    public long getGeneration() {
+        lock.lock();
+        try {
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the bytes written to the file, including the header
+     */
+    public long getSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of fsyncs so far; fewer than records when commits were grouped
+     */
+    public long getSyncCount() {
+        lock.lock();
+        try {
+            return syncs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Makes everything appended durable and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static byte[] encode(byte type, List<Place> places) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + places.size() * 48);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            if (type == ADD) {
+                out.writeInt(places.size());
+                for (Place place : places) {
+                    writePlace(out, place);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Cannot happen writing to memory.
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Record decode(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = in.readByte();
+        if (type == SORT_BY_TOWN_NAME || type == READ_ZIP_CODES) {
+            return new Record(type, List.of());
+        }
+        if (type != ADD) {
+            throw new IOException("unknown log record type " + type);
+        }
+        int count = in.readInt();
+        List<Place> places = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            places.add(readPlace(in));
+        }
+        return new Record(type, places);
+    }
+
+    private static void writePlace(DataOutputStream out, Place place) throws IOException {
+        byte kind = place instanceof PopulatedPlace ? PlaceSnapshot.POPULATED_PLACE
+                : place instanceof LocatedPlace ? PlaceSnapshot.LOCATED_PLACE : PlaceSnapshot.PLACE;
+        out.writeByte(kind);
+        writeString(out, place.getZipcode());
+        writeString(out, place.getTown());
+        writeString(out, place.getState());
+        if (place instanceof LocatedPlace) {
+            out.writeDouble(((LocatedPlace) place).getLatitude());
+            out.writeDouble(((LocatedPlace) place).getLongitude());
+        }
+        if (place instanceof PopulatedPlace) {
+            PopulatedPlace populated = (PopulatedPlace) place;
+            out.writeInt(populated.getPopulation());
+            out.writeInt(populated.getMales());
+            out.writeInt(populated.getFemales());
+        }
+    }
+
+    private static Place readPlace(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        String zipcode = readString(in);
+        String town = readString(in);
+        String state = readString(in);
+        if (kind == PlaceSnapshot.PLACE) {
+            return new Place(zipcode, town, state);
+        }
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        if (kind == PlaceSnapshot.LOCATED_PLACE) {
+            return new LocatedPlace(zipcode, town, state, latitude, longitude);
+        }
+        return new PopulatedPlace(zipcode, town, state, latitude, longitude, in.readInt(), in.readInt(), in.readInt());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,432 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Columnar binary snapshot of a place database, replacing Java serialization
+ * of the whole ArrayList. Zipcodes are stored as ints, towns and states as
+ * ids into a dictionary of distinct strings, and every other field as one
+ * primitive column. Loading maps the file and bulk-copies each column.
+ *
+ * Layout (big-endian), version 1:
+ * <pre>
+ *   int magic "PLDB", int version, int count, int dictionarySize
+ *   dictionarySize x (int length, UTF-8 bytes)
+ *   byte[count] kind       0 = Place, 1 = LocatedPlace, 2 = PopulatedPlace
+ *   int[count]  zipcode    the five digit zipcode, or -2 - dictionary id, or -1 for null
+ *   int[count]  town       dictionary id, or -1 for null
+ *   int[count]  state      dictionary id, or -1 for null
+ *   int[count]  population, int[count] males, int[count] females
+ *   double[count] latitude, double[count] longitude
+ * </pre>
+ * Anything after the columns is ignored.
+ */
+public class PlaceSnapshot {
+    public static final int MAGIC = 0x504C4442; // "PLDB"
+    public static final int VERSION = 1;
+
+    public static final byte PLACE = 0;
+    public static final byte LOCATED_PLACE = 1;
+    public static final byte POPULATED_PLACE = 2;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int ROW_BYTES = 1 + 6 * 4 + 2 * 8;
+    private static final int MAX_ZIPCODE = 99999;
+    private static final int NULL_ID = -1;
+
+    private final int count;
+    private String[] dictionary;
+    private final byte[] kinds;
+    private final int[] zipcodes;
+    private final int[] towns;
+    private final int[] states;
+    private final int[] populations;
+    private final int[] males;
+    private final int[] females;
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    private PlaceSnapshot(int count, String[] dictionary) {
+        this(count, dictionary, new byte[count], new int[count], new int[count], new int[count],
+                new int[count], new int[count], new int[count], new double[count], new double[count]);
+    }
+
+    /**
+     * Wraps existing columns, which may be longer than count. The arrays are
+     * used as they are, not copied.
+     *
+     * @param count       the number of rows
+     * @param dictionary  the strings referred to by the town, state and non-numeric zipcode columns
+     * @param kinds       PLACE, LOCATED_PLACE or POPULATED_PLACE for each row
+     * @param zipcodes    the zipcode column, encoded as described above
+     * @param towns       the town column
+     * @param states      the state column
+     * @param populations the population column
+     * @param males       the males column
+     * @param females     the females column
+     * @param latitudes   the latitude column
+     * @param longitudes  the longitude column
+     */
+    public PlaceSnapshot(int count, String[] dictionary, byte[] kinds, int[] zipcodes, int[] towns, int[] states,
+                         int[] populations, int[] males, int[] females, double[] latitudes, double[] longitudes) {
+        this.count = count;
+        this.dictionary = dictionary;
+        this.kinds = kinds;
+        this.zipcodes = zipcodes;
+        this.towns = towns;
+        this.states = states;
+        this.populations = populations;
+        this.males = males;
+        this.females = females;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    /**
+     * Builds the columns for a list of places.
+     *
+     * @param places the places, in database order
+     * @return the snapshot
+     */
+    public static PlaceSnapshot of(List<Place> places) {
+        StringDictionary strings = new StringDictionary();
+        PlaceSnapshot snapshot = new PlaceSnapshot(places.size(), null);
+        for (int i = 0; i < places.size(); i++) {
+            Place place = places.get(i);
+            snapshot.zipcodes[i] = encodeZipcode(place.getZipcode(), strings);
+            snapshot.towns[i] = id(place.getTown(), strings);
+            snapshot.states[i] = id(place.getState(), strings);
+            if (place instanceof LocatedPlace) {
+                LocatedPlace located = (LocatedPlace) place;
+                snapshot.kinds[i] = LOCATED_PLACE;
+                snapshot.latitudes[i] = located.getLatitude();
+                snapshot.longitudes[i] = located.getLongitude();
+            }
+            if (place instanceof PopulatedPlace) {
+                PopulatedPlace populated = (PopulatedPlace) place;
+                snapshot.kinds[i] = POPULATED_PLACE;
+                snapshot.populations[i] = populated.getPopulation();
+                snapshot.males[i] = populated.getMales();
+                snapshot.females[i] = populated.getFemales();
+            }
+        }
+        snapshot.dictionary = strings.toArray();
+        return snapshot;
+    }
+
+    /**
+     * Encodes a zipcode the way the zipcode column stores it.
+     *
+     * @param zipcode the zipcode
+     * @param strings the dictionary non-numeric zipcodes are added to
+     * @return the five digit zipcode as an int, -2 - its dictionary id, or -1 for null
+     */
+    public static int encodeZipcode(String zipcode, StringDictionary strings) {
+        int key = ZipcodeIndex.encode(zipcode);
+        return key >= 0 || zipcode == null ? key : -2 - strings.id(zipcode);
+    }
+
+    /**
+     * Decodes a value of the zipcode column.
+     *
+     * @param zipcode    the encoded zipcode
+     * @param dictionary the dictionary it refers to
+     * @return the zipcode
+     */
+    public static String decodeZipcode(int zipcode, StringDictionary dictionary) {
+        if (zipcode >= 0) {
+            return ZipcodeIndex.decode(zipcode);
+        }
+        return zipcode == NULL_ID ? null : dictionary.get(-2 - zipcode);
+    }
+
+    /**
+     * Returns the dictionary id of a string, adding it if it is new.
+     *
+     * @param value   the string, may be null
+     * @param strings the dictionary
+     * @return the id, or -1 for null
+     */
+    public static int id(String value, StringDictionary strings) {
+        return value == null ? NULL_ID : strings.id(value);
+    }
+
+    /**
+     * Checks whether a file starts with the snapshot magic number, so callers can
+     * fall back to reading files written by the old ObjectOutputStream format.
+     *
+     * @param fileName the file to check
+     * @return true if the file is a snapshot
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSnapshot(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the magic number is in or the file ends
+            }
+            return !header.hasRemaining() && header.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Reads a file written by the old format, the whole ArrayList of places
+     * serialized with ObjectOutputStream.
+     *
+     * @param fileName the file to read
+     * @return the places, in the order they were saved
+     * @throws IOException            if the file cannot be read or does not hold a list of places
+     * @throws ClassNotFoundException if a class in the file cannot be found
+     */
+    public static ArrayList<Place> readLegacy(String fileName) throws IOException, ClassNotFoundException {
+        Object contents;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+            contents = in.readObject();
+        }
+        if (!(contents instanceof ArrayList) || !((ArrayList<?>) contents).stream().allMatch(Place.class::isInstance)) {
+            throw new IOException(fileName + " does not hold a list of places");
+        }
+        @SuppressWarnings("unchecked") // Every element was just checked to be a Place.
+        ArrayList<Place> places = (ArrayList<Place>) contents;
+        return places;
+    }
+
+    /**
+     * Maps a snapshot file and copies its columns out. Every length is checked
+     * against the file and every id against the dictionary, so a damaged file
+     * fails here rather than in whatever uses the columns.
+     *
+     * @param fileName the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file cannot be read, is not a snapshot of a supported version,
+     *                     or is truncated or corrupt
+     */
+    public static PlaceSnapshot load(String fileName) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException(fileName + " is not a place snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(fileName + " has unsupported snapshot version " + buffer.getInt(4));
+        }
+        int count = buffer.getInt(8);
+        int dictionarySize = buffer.getInt(12);
+        // Each string takes at least its 4 byte length.
+        if (count < 0 || dictionarySize < 0 || dictionarySize > (buffer.limit() - HEADER_BYTES) / 4) {
+            throw corrupt(fileName, "has " + count + " places and " + dictionarySize + " strings");
+        }
+        String[] dictionary = new String[dictionarySize];
+        int pos = HEADER_BYTES;
+        for (int i = 0; i < dictionary.length; i++) {
+            int length = buffer.limit() - pos >= 4 ? buffer.getInt(pos) : -1;
+            if (length < 0 || length > buffer.limit() - pos - 4) {
+                throw corrupt(fileName, "ends in string " + i + " of " + dictionary.length);
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(pos + 4, bytes);
+            dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+            pos += 4 + length;
+        }
+        if ((long) count * ROW_BYTES > buffer.limit() - pos) {
+            throw corrupt(fileName, "is too short for " + count + " places");
+        }
+
+        PlaceSnapshot snapshot = new PlaceSnapshot(count, dictionary);
+        buffer.get(pos, snapshot.kinds);
+        pos += count;
+        for (int[] column : snapshot.intColumns()) {
+            buffer.slice(pos, count * 4).asIntBuffer().get(column);
+            pos += count * 4;
+        }
+        for (double[] column : snapshot.doubleColumns()) {
+            buffer.slice(pos, count * 8).asDoubleBuffer().get(column);
+            pos += count * 8;
+        }
+        snapshot.checkRows(fileName);
+        return snapshot;
+    }
+
+    /**
+     * Checks that every row has a known kind and refers only to strings in the dictionary.
+     */
+    private void checkRows(String fileName) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int zipcode = zipcodes[i];
+            boolean zipcodeValid = zipcode >= 0 ? zipcode <= MAX_ZIPCODE : zipcode == NULL_ID || isId(-2 - zipcode);
+            if (kinds[i] < PLACE || kinds[i] > POPULATED_PLACE || !zipcodeValid
+                    || !(towns[i] == NULL_ID || isId(towns[i])) || !(states[i] == NULL_ID || isId(states[i]))) {
+                throw corrupt(fileName, "has an invalid place at row " + i);
+            }
+        }
+    }
+
+    private boolean isId(int id) {
+        return id >= 0 && id < dictionary.length;
+    }
+
+    private static IOException corrupt(String fileName, String problem) {
+        return new IOException(fileName + " is truncated or corrupt: it " + problem);
+    }
+
+    /**
+     * Writes the snapshot through a FileChannel to a temporary file next to
+     * the target, forces it to disk and renames it over the target, so a
+     * failed save leaves the old file whole.
+     *
+     * @param fileName the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void save(String fileName) throws IOException {
+        byte[][] encoded = new byte[dictionary.length][];
+        int dictionaryBytes = 0;
+        for (int i = 0; i < dictionary.length; i++) {
+            encoded[i] = dictionary[i].getBytes(StandardCharsets.UTF_8);
+            dictionaryBytes += 4 + encoded[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + dictionaryBytes + count * ROW_BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(dictionary.length);
+        for (byte[] bytes : encoded) {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        buffer.put(kinds, 0, count);
+        for (int[] column : intColumns()) {
+            IntBuffer ints = buffer.asIntBuffer();
+            ints.put(column, 0, count);
+            buffer.position(buffer.position() + count * 4);
+        }
+        for (double[] column : doubleColumns()) {
+            DoubleBuffer doubles = buffer.asDoubleBuffer();
+            doubles.put(column, 0, count);
+            buffer.position(buffer.position() + count * 8);
+        }
+        buffer.flip();
+        Path target = new File(fileName).toPath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Rebuilds the place objects. Rows share the dictionary's String instances,
+     * so every place in the same town refers to one town String.
+     *
+     * @return the places, in the order they were saved
+     */
+    public ArrayList<Place> toPlaces() {
+        ArrayList<Place> places = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            places.add(getPlace(i));
+        }
+        return places;
+    }
+
+    /**
+     * Rebuilds one place object.
+     *
+     * @param row the row of the place
+     * @return the place
+     */
+    public Place getPlace(int row) {
+        String zipcode = getZipcode(row);
+        String town = string(towns[row]);
+        String state = string(states[row]);
+        switch (kinds[row]) {
+            case POPULATED_PLACE:
+                return new PopulatedPlace(zipcode, town, state, latitudes[row], longitudes[row],
+                        populations[row], males[row], females[row]);
+            case LOCATED_PLACE:
+                return new LocatedPlace(zipcode, town, state, latitudes[row], longitudes[row]);
+            default:
+                return new Place(zipcode, town, state);
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // The column accessors return the arrays themselves, not copies.
+
+    public String[] getDictionary() {
+        return dictionary;
+    }
+
+    public byte[] getKinds() {
+        return kinds;
+    }
+
+    public int[] getZipcodes() {
+        return zipcodes;
+    }
+
+    public int[] getTowns() {
+        return towns;
+    }
+
+    public int[] getStates() {
+        return states;
+    }
+
+    public int[] getPopulations() {
+        return populations;
+    }
+
+    public int[] getMales() {
+        return males;
+    }
+
+    public int[] getFemales() {
+        return females;
+    }
+
+    public double[] getLatitudes() {
+        return latitudes;
+    }
+
+    public double[] getLongitudes() {
+        return longitudes;
+    }
+
+    public String getZipcode(int row) {
+        int zipcode = zipcodes[row];
+        if (zipcode >= 0) {
+            return ZipcodeIndex.decode(zipcode);
+        }
+        return zipcode == NULL_ID ? null : dictionary[-2 - zipcode];
+    }
+
+    private String string(int id) {
+        return id == NULL_ID ? null : dictionary[id];
+    }
+
+    private int[][] intColumns() {
+        return new int[][]{zipcodes, towns, states, populations, males, females};
+    }
+
+    private double[][] doubleColumns() {
+        return new double[][]{latitudes, longitudes};
+    }
+}
@@ -1,4 +1,7 @@
 public class PopulatedPlace extends LocatedPlace{
+    // Pinned to the value of the first release so old database.out files still load.
+    private static final long serialVersionUID = 2162460680183718312L;
+
     private int population;
     private int males;
     private int females;
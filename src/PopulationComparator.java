@@ -5,6 +5,6 @@ import java.util.Comparator;
 public class PopulationComparator implements Comparator<PopulatedPlace> {
     @Override
     public int compare(PopulatedPlace p1, PopulatedPlace p2) {
-        return Integer.compare(p1.getPopulation(), p2.getPopulation());
+        return Integer.compare(p2.getPopulation(), p1.getPopulation());
     }
 }
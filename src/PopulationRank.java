@@ -0,0 +1,213 @@
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * Maintained structure answering "what is the population rank of this town",
+ * "which are the k most populous places" and "which places have a population
+ * in this range", overall or within one state. It keeps one sorted array of
+ * every populated place and one per state, and the largest population of each
+ * town in a map, so a rank query is one map lookup plus one binary search, a
+ * top-k query reads k entries and a range query two binary searches plus the
+ * entries in range. Adds append to the arrays; they are re-sorted on the next
+ * query, which is cheap because they are then already mostly sorted.
+ *
+ * Each entry packs a place's population and its row in the database into a
+ * long, population in the high half, so sorting the primitive array orders
+ * by population and keeps each population next to its row without a parallel
+ * array to permute. The low half holds Integer.MAX_VALUE - row, which lists
+ * places with equal populations in the order they were added when the array
+ * is read from the top.
+ *
+ * Ranks are in descending order of population, 1 being the most populous.
+ * A town's rank is that of its most populous place: one more than the number
+ * of places with a strictly larger population, so tied places share a rank.
+ */
+public class PopulationRank {
+    private final Entries all;
+    private final TreeMap<String, Entries> byState = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final TreeMap<String, Integer> maxPopulationByTown = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Packed (population, row) entries, sorted lazily in ascending order.
+     */
+    private static final class Entries {
+        long[] entries = new long[16];
+        int size;
+        boolean sorted = true; // whether entries is in ascending order
+
+        Entries copy() {
+            Entries copy = new Entries();
+            copy.entries = Arrays.copyOf(entries, Math.max(16, size));
+            copy.size = size;
+            copy.sorted = sorted;
+            return copy;
+        }
+
+        void add(long entry) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            if (size > 0 && entry < entries[size - 1]) {
+                sorted = false;
+            }
+            entries[size++] = entry;
+        }
+
+        void prepare() {
+            if (!sorted) {
+                Arrays.sort(entries, 0, size);
+                sorted = true;
+            }
+        }
+
+        /**
+         * @return the first position holding a population larger than the given one
+         */
+        int upperBound(int population) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (population(entries[mid]) <= population) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Returns the rows of entries[from, to), most populous first.
+         */
+        int[] rowsDescending(int from, int to) {
+            int[] rows = new int[Math.max(0, to - from)];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = row(entries[to - 1 - i]);
+            }
+            return rows;
+        }
+    }
+
+    public PopulationRank() {
+        all = new Entries();
+    }
+
+    /**
+     * Copy constructor; the copy shares nothing with the original.
+     *
+     * @param other the structure to copy
+     */
+    public PopulationRank(PopulationRank other) {
+        all = other.all.copy();
+        other.byState.forEach((state, entries) -> byState.put(state, entries.copy()));
+        maxPopulationByTown.putAll(other.maxPopulationByTown);
+    }
+
+    /**
+     * Adds the population of one place.
+     *
+     * @param town       the town of the place
+     * @param state      the state of the place
+     * @param population the population of the place
+     * @param row        the position of the place in the database, returned by top and between
+     */
+    public void add(String town, String state, int population, int row) {
+        long entry = ((long) population << 32) | (Integer.MAX_VALUE - row);
+        all.add(entry);
+        if (state != null) {
+            byState.computeIfAbsent(state, s -> new Entries()).add(entry);
+        }
+        if (town != null) {
+            maxPopulationByTown.merge(town, population, Math::max);
+        }
+    }
+
+    /**
+     * Finds the population rank of a town.
+     *
+     * @param town the town name, in any case
+     * @return the rank, or -1 if the town has no populated place
+     */
+    public int rank(String town) {
+        Integer population = town == null ? null : maxPopulationByTown.get(town);
+        if (population == null) {
+            return -1;
+        }
+        all.prepare();
+        return all.size - all.upperBound(population) + 1;
+    }
+
+    /**
+     * Finds the most populous places.
+     *
+     * @param state the state to keep, in any case, or null for every state
+     * @param k     the most places wanted
+     * @return the rows of up to k places, most populous first, ties in the order they were added
+     */
+    public int[] top(String state, int k) {
+        Entries entries = entries(state);
+        if (entries == null) {
+            return new int[0];
+        }
+        entries.prepare();
+        return entries.rowsDescending(Math.max(0, entries.size - Math.max(0, k)), entries.size);
+    }
+
+    /**
+     * Finds the places whose population is in a range.
+     *
+     * @param state         the state to keep, in any case, or null for every state
+     * @param minPopulation the smallest population, inclusive
+     * @param maxPopulation the largest population, inclusive
+     * @return the rows of the places, most populous first, ties in the order they were added
+     */
+    public int[] between(String state, int minPopulation, int maxPopulation) {
+        Entries entries = entries(state);
+        if (entries == null || minPopulation > maxPopulation) {
+            return new int[0];
+        }
+        entries.prepare();
+        int from = minPopulation == Integer.MIN_VALUE ? 0 : entries.upperBound(minPopulation - 1);
+        return entries.rowsDescending(from, entries.upperBound(maxPopulation));
+    }
+
+    /**
+     * Sorts the populations added since the last query now instead of on the next one.
+     */
+    public void prepare() {
+        all.prepare();
+        for (Entries entries : byState.values()) {
+            entries.prepare();
+        }
+    }
+
+    /**
+     * Removes every population.
+     */
+    public void clear() {
+        all.size = 0;
+        all.sorted = true;
+        byState.clear();
+        maxPopulationByTown.clear();
+    }
+
+    /**
+     * @return the number of populated places added
+     */
+    public int size() {
+        return all.size;
+    }
+
+    private Entries entries(String state) {
+        return state == null ? all : byState.get(state);
+    }
+
+    private static int population(long entry) {
+        return (int) (entry >> 32);
+    }
+
+    private static int row(long entry) {
+        return Integer.MAX_VALUE - (int) entry;
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Population totals of a group of populated places: a state, a zipcode
+ * prefix or the places around a location. Places without a population
+ * are not counted.
+ */
+public class PopulationStats {
+    // Most populous first; ties by key so the order is stable.
+    private static final Comparator<PopulationStats> LARGEST_FIRST =
+            Comparator.comparingLong(PopulationStats::getPopulation).reversed()
+                    .thenComparing(PopulationStats::getKey, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final String key;
+    private final int places;
+    private final long population;
+    private final long males;
+    private final long females;
+    private final int minPopulation;
+    private final int maxPopulation;
+    private final String smallestZipcode;
+    private final String largestZipcode;
+
+    public PopulationStats(String key, int places, long population, long males, long females,
+                           int minPopulation, int maxPopulation, String smallestZipcode, String largestZipcode) {
+        this.key = key;
+        this.places = places;
+        this.population = population;
+        this.males = males;
+        this.females = females;
+        this.minPopulation = minPopulation;
+        this.maxPopulation = maxPopulation;
+        this.smallestZipcode = smallestZipcode;
+        this.largestZipcode = largestZipcode;
+    }
+
+    /**
+     * Returns the k most populous groups.
+     *
+     * @param groups the groups, e.g. the values of PlaceDB.populationByState()
+     * @param k      the most groups wanted
+     * @return up to k groups, most populous first
+     */
+    public static List<PopulationStats> largest(Collection<PopulationStats> groups, int k) {
+        List<PopulationStats> sorted = new ArrayList<>(groups);
+        sorted.sort(LARGEST_FIRST);
+        return sorted.subList(0, Math.max(0, Math.min(k, sorted.size())));
+    }
+
+    /**
+     * @return the state, the zipcode prefix or a description of the area
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the number of populated places in the group
+     */
+    public int getPlaces() {
+        return places;
+    }
+
+    public long getPopulation() {
+        return population;
+    }
+
+    public long getMales() {
+        return males;
+    }
+
+    public long getFemales() {
+        return females;
+    }
+
+    /**
+     * @return the smallest population of a place in the group, 0 if it is empty
+     */
+    public int getMinPopulation() {
+        return minPopulation;
+    }
+
+    /**
+     * @return the largest population of a place in the group, 0 if it is empty
+     */
+    public int getMaxPopulation() {
+        return maxPopulation;
+    }
+
+    /**
+     * @return the zipcode of the least populous place, the first added on ties; null if the group is empty
+     */
+    public String getSmallestZipcode() {
+        return smallestZipcode;
+    }
+
+    /**
+     * @return the zipcode of the most populous place, the first added on ties; null if the group is empty
+     */
+    public String getLargestZipcode() {
+        return largestZipcode;
+    }
+
+    /**
+     * @return the mean population of a place, NaN if the group is empty
+     */
+    public double getAveragePopulation() {
+        return places == 0 ? Double.NaN : (double) population / places;
+    }
+
+    /**
+     * @return males per 100 females, NaN if the group has no females
+     */
+    public double getSexRatio() {
+        return females == 0 ? Double.NaN : 100.0 * males / females;
+    }
+
+    @Override
+    public String toString() {
+        return key + ": " + places + " places, population " + population
+                + String.format(" (avg %.1f, min %d, max %d), %.1f males per 100 females",
+                getAveragePopulation(), minPopulation, maxPopulation, getSexRatio());
+    }
+}
@@ -0,0 +1,308 @@
+import java.util.Arrays;
+
+/**
+ * Static k-d tree over latitude/longitude points for nearest-neighbor and
+ * radius queries. Each point is stored as a unit vector on the sphere, so
+ * straight-line (chord) distance between vectors orders points exactly like
+ * great-circle distance does, with no special cases at the poles or the
+ * 180th meridian.
+ *
+ * The tree is implicit: the points are reordered so that every subrange
+ * [low, high) has its splitting point at the middle, which needs no node objects.
+ * It is built once from a snapshot of points; callers rebuild it after adding points.
+ */
+public class SpatialIndex {
+    private final int size;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    private final int[] rows;
+    private final byte[] axes;
+
+    /**
+     * Builds the tree.
+     *
+     * @param latitudes  the latitude of each point, in degrees
+     * @param longitudes the longitude of each point, in degrees
+     * @param rows       the row each point belongs to, returned by queries
+     * @param size       the number of points in the arrays to use
+     */
+    public SpatialIndex(double[] latitudes, double[] longitudes, int[] rows, int size) {
+        this.size = size;
+        xs = new double[size];
+        ys = new double[size];
+        zs = new double[size];
+        this.rows = Arrays.copyOf(rows, size);
+        axes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            double lat = Math.toRadians(latitudes[i]);
+            double lon = Math.toRadians(longitudes[i]);
+            xs[i] = Math.cos(lat) * Math.cos(lon);
+            ys[i] = Math.cos(lat) * Math.sin(lon);
+            zs[i] = Math.sin(lat);
+        }
+        build(0, size);
+    }
+
+    /**
+     * @return the number of points in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the k points closest to a location.
+     *
+     * @param latitude  the latitude of the location, in degrees
+     * @param longitude the longitude of the location, in degrees
+     * @param k         the number of points wanted
+     * @return the rows of up to k points, nearest first
+     */
+    public int[] nearest(double latitude, double longitude, int k) {
+        k = Math.min(k, size);
+        if (k <= 0) {
+            return new int[0];
+        }
+        double[] query = unitVector(latitude, longitude);
+        // Max-heap on squared chord distance holding the k best points so far.
+        double[] heapDistances = new double[k];
+        int[] heapPoints = new int[k];
+        int[] heapSize = new int[1];
+        nearest(0, size, query, k, heapDistances, heapPoints, heapSize);
+        return sortedRows(heapPoints, heapDistances, heapSize[0]);
+    }
+
+    /**
+     * Finds every point within a great-circle distance of a location.
+     *
+     * @param latitude    the latitude of the location, in degrees
+     * @param longitude   the longitude of the location, in degrees
+     * @param radiusMiles the radius, in miles
+     * @return the rows of the points in range, nearest first
+     */
+    public int[] withinRadius(double latitude, double longitude, double radiusMiles) {
+        if (radiusMiles < 0) {
+            return new int[0];
+        }
+        double[] query = unitVector(latitude, longitude);
+        double chord = chordLength(radiusMiles);
+        int[] found = new int[16];
+        double[] distances = new double[16];
+        int count = 0;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size;
+        while (top > 0) {
+            int high = stack[--top];
+            int low = stack[--top];
+            if (low >= high) {
+                continue;
+            }
+            int mid = (low + high) >>> 1;
+            double d = squaredDistance(mid, query);
+            if (d <= chord * chord) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                    distances = Arrays.copyOf(distances, count * 2);
+                }
+                found[count] = mid;
+                distances[count++] = d;
+            }
+            double delta = query[axes[mid]] - coordinate(mid, axes[mid]);
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            if (delta <= chord) { // the left half can hold points in range
+                stack[top++] = low;
+                stack[top++] = mid;
+            }
+            if (delta >= -chord) { // so can the right half
+                stack[top++] = mid + 1;
+                stack[top++] = high;
+            }
+        }
+        return sortedRows(found, distances, count);
+    }
+
+    /**
+     * Converts a distance in miles along the surface to the chord between unit vectors.
+     */
+    private static double chordLength(double miles) {
+        double angle = Math.min(Math.PI, miles / DistanceUnit.MILES.getEarthRadius());
+        return 2 * Math.sin(angle / 2);
+    }
+
+    private static double[] unitVector(double latitude, double longitude) {
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        return new double[]{Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat)};
+    }
+
+    private void nearest(int low, int high, double[] query, int k,
+                         double[] heapDistances, int[] heapPoints, int[] heapSize) {
+        if (low >= high) {
+            return;
+        }
+        int mid = (low + high) >>> 1;
+        double d = squaredDistance(mid, query);
+        if (heapSize[0] < k) {
+            siftUp(heapDistances, heapPoints, heapSize[0]++, d, mid);
+        } else if (d < heapDistances[0]) {
+            siftDown(heapDistances, heapPoints, k, d, mid);
+        }
+        double delta = query[axes[mid]] - coordinate(mid, axes[mid]);
+        boolean leftFirst = delta <= 0;
+        nearest(leftFirst ? low : mid + 1, leftFirst ? mid : high, query, k, heapDistances, heapPoints, heapSize);
+        // Visit the far side only if it can hold something closer than the worst kept point.
+        if (heapSize[0] < k || delta * delta < heapDistances[0]) {
+            nearest(leftFirst ? mid + 1 : low, leftFirst ? high : mid, query, k, heapDistances, heapPoints, heapSize);
+        }
+    }
+
+    private static void siftUp(double[] distances, int[] points, int at, double d, int point) {
+        while (at > 0) {
+            int parent = (at - 1) / 2;
+            if (distances[parent] >= d) {
+                break;
+            }
+            distances[at] = distances[parent];
+            points[at] = points[parent];
+            at = parent;
+        }
+        distances[at] = d;
+        points[at] = point;
+    }
+
+    /** Replaces the root of a full heap and restores the heap order. */
+    private static void siftDown(double[] distances, int[] points, int size, double d, int point) {
+        int at = 0;
+        while (true) {
+            int child = 2 * at + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && distances[child + 1] > distances[child]) {
+                child++;
+            }
+            if (distances[child] <= d) {
+                break;
+            }
+            distances[at] = distances[child];
+            points[at] = points[child];
+            at = child;
+        }
+        distances[at] = d;
+        points[at] = point;
+    }
+
+    /**
+     * Orders points by distance and maps them to their rows.
+     */
+    private int[] sortedRows(int[] points, double[] distances, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = rows[points[order[i]]];
+        }
+        return result;
+    }
+
+    private double squaredDistance(int point, double[] query) {
+        double dx = xs[point] - query[0];
+        double dy = ys[point] - query[1];
+        double dz = zs[point] - query[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private double coordinate(int point, int axis) {
+        return axis == 0 ? xs[point] : axis == 1 ? ys[point] : zs[point];
+    }
+
+    /**
+     * Arranges [low, high) so its middle point splits the range along the
+     * axis with the widest spread, then does the same for both halves.
+     */
+    private void build(int low, int high) {
+        while (high - low > 1) {
+            int axis = widestAxis(low, high);
+            int mid = (low + high) >>> 1;
+            select(low, high - 1, mid, axis);
+            axes[mid] = (byte) axis;
+            build(low, mid);
+            low = mid + 1;
+        }
+        if (low < high) {
+            axes[low] = 0;
+        }
+    }
+
+    private int widestAxis(int low, int high) {
+        int widest = 0;
+        double widestSpread = -1;
+        for (int axis = 0; axis < 3; axis++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = low; i < high; i++) {
+                double c = coordinate(i, axis);
+                min = Math.min(min, c);
+                max = Math.max(max, c);
+            }
+            if (max - min > widestSpread) {
+                widestSpread = max - min;
+                widest = axis;
+            }
+        }
+        return widest;
+    }
+
+    /**
+     * Quickselect: moves the point that belongs at position nth (by the given axis)
+     * there, with smaller-or-equal points before it and larger-or-equal after it.
+     */
+    private void select(int left, int right, int nth, int axis) {
+        while (right > left) {
+            double pivot = coordinate((left + right) >>> 1, axis);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (coordinate(i, axis) < pivot) {
+                    i++;
+                }
+                while (coordinate(j, axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (nth <= j) {
+                right = j;
+            } else if (nth >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        double x = xs[a];
+        xs[a] = xs[b];
+        xs[b] = x;
+        double y = ys[a];
+        ys[a] = ys[b];
+        ys[b] = y;
+        double z = zs[a];
+        zs[a] = zs[b];
+        zs[b] = z;
+        int row = rows[a];
+        rows[a] = rows[b];
+        rows[b] = row;
+    }
+}
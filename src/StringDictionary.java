@@ -0,0 +1,116 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Dictionary assigning a small int id to each distinct String, so a column of
+ * repeated values (towns, states) can be stored as ints and every row with
+ * the same value shares one String instance.
+ */
+public class StringDictionary {
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    private String[] strings = new String[64];
+    private int size;
+
+    public StringDictionary() {
+    }
+
+    /**
+     * Copy constructor; the copy shares the String instances but nothing else.
+     *
+     * @param other the dictionary to copy
+     */
+    public StringDictionary(StringDictionary other) {
+        ids.putAll(other.ids);
+        strings = other.strings.clone();
+        size = other.size;
+    }
+
+    /**
+     * Creates a dictionary holding the given strings, with ids in array order.
+     *
+     * @param strings distinct strings
+     */
+    public StringDictionary(String[] strings) {
+        this.strings = Arrays.copyOf(strings, Math.max(64, strings.length));
+        size = strings.length;
+        for (int i = 0; i < size; i++) {
+            ids.put(strings[i], i);
+        }
+    }
+
+    /**
+     * Returns the id of a string, adding it if it is new.
+     *
+     * @param value the string
+     * @return its id
+     */
+    public int id(String value) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            if (size == strings.length) {
+                strings = Arrays.copyOf(strings, size * 2);
+            }
+            id = size;
+            strings[size++] = value;
+            ids.put(value, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of a string without adding it.
+     *
+     * @param value the string
+     * @return its id, or -1 if it is not in the dictionary
+     */
+    public int find(String value) {
+        Integer id = ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the dictionary's instance of a string, adding it if it is new,
+     * so equal strings passed through here share one instance.
+     *
+     * @param value the string, or null
+     * @return the shared instance, or null
+     */
+    public String intern(String value) {
+        return value == null ? null : get(id(value));
+    }
+
+    /**
+     * Returns the dictionary's instance of a string without adding it.
+     *
+     * @param value the string
+     * @return the shared instance, or value itself if it is not in the dictionary
+     */
+    public String canonical(String value) {
+        int id = find(value);
+        return id < 0 ? value : strings[id];
+    }
+
+    /**
+     * Returns the string with an id.
+     *
+     * @param id the id
+     * @return the string
+     */
+    public String get(int id) {
+        return strings[id];
+    }
+
+    /**
+     * @return the number of distinct strings
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the strings in id order
+     */
+    public String[] toArray() {
+        return Arrays.copyOf(strings, size);
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * Secondary index from town name to the rows of the places in that town.
+ * Town names are compared ignoring case, like the town searches in PlaceDB.
+ * The index is kept next to the place table, so looking up a town never
+ * requires the table itself to be sorted.
+ */
+public class TownIndex {
+    private static final int[] NO_ROWS = new int[0];
+
+    private final TreeMap<String, Rows> rowsByTown = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * The rows of one town, in an array grown by doubling so appends are amortized O(1).
+     */
+    private static final class Rows {
+        int[] rows = new int[2];
+        int count;
+
+        Rows copy() {
+            Rows copy = new Rows();
+            copy.rows = Arrays.copyOf(rows, Math.max(2, count));
+            copy.count = count;
+            return copy;
+        }
+
+        void add(int row) {
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+            }
+            rows[count++] = row;
+        }
+    }
+
+    public TownIndex() {
+    }
+
+    /**
+     * Copy constructor; the copy shares nothing with the original.
+     *
+     * @param other the index to copy
+     */
+    public TownIndex(TownIndex other) {
+        rowsByTown.putAll(other.rowsByTown);
+        rowsByTown.replaceAll((town, rows) -> rows.copy());
+    }
+
+    /**
+     * Adds a row to the rows of a town. Rows are kept in the order they are added.
+     *
+     * @param town the town name; null towns are not indexed
+     * @param row  the row of the place
+     */
+    public void add(String town, int row) {
+        if (town == null) {
+            return;
+        }
+        rowsByTown.computeIfAbsent(town, t -> new Rows()).add(row);
+    }
+
+    /**
+     * Looks up the rows of every place in a town.
+     *
+     * @param town the town name, in any case
+     * @return a copy of the rows, in the order they were added, or an empty array if there are none
+     */
+    public int[] get(String town) {
+        if (town == null) {
+            return NO_ROWS;
+        }
+        Rows rows = rowsByTown.get(town);
+        return rows == null ? NO_ROWS : Arrays.copyOf(rows.rows, rows.count);
+    }
+
+    /**
+     * Removes every town from the index.
+     */
+    public void clear() {
+        rowsByTown.clear();
+    }
+
+    /**
+     * @return the number of distinct town names in the index
+     */
+    public int size() {
+        return rowsByTown.size();
+    }
+}
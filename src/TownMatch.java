@@ -0,0 +1,58 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One result of a town-name search: a town in a state, with the zipcodes
+ * it covers, its total population and how far its name is from the query.
+ */
+public class TownMatch {
+    private final String town;
+    private final String state;
+    private final List<String> zipcodes;
+    private final long population;
+    private final int editDistance;
+
+    public TownMatch(String town, String state, List<String> zipcodes, long population, int editDistance) {
+        this.town = town;
+        this.state = state;
+        this.zipcodes = Collections.unmodifiableList(zipcodes);
+        this.population = population;
+        this.editDistance = editDistance;
+    }
+
+    public String getTown() {
+        return town;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * @return the zipcodes of the town's places, in the order they were added
+     */
+    public List<String> getZipcodes() {
+        return zipcodes;
+    }
+
+    /**
+     * @return the sum of the populations of the town's populated places
+     */
+    public long getPopulation() {
+        return population;
+    }
+
+    /**
+     * @return the number of letters inserted, deleted, replaced or swapped to turn
+     * the query into the town name, ignoring case; 0 for prefix completions
+     */
+    public int getEditDistance() {
+        return editDistance;
+    }
+
+    @Override
+    public String toString() {
+        return town + ", " + state + " (" + zipcodes.size() + " zipcodes, population " + population
+                + (editDistance > 0 ? ", distance " + editDistance : "") + ")";
+    }
+}
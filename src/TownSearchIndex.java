@@ -0,0 +1,350 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Static index of town names for autocomplete and typo-tolerant search.
+ * Places are grouped into one entry per town and state. The distinct town
+ * names, lowercased, are kept sorted, so a prefix is a binary search and a
+ * range scan. Each name is also split into trigrams (three-letter pieces of
+ * the name padded with spaces), and each trigram lists the names holding it;
+ * trigrams are packed into longs and the lists into one int array, so
+ * building the index allocates little beyond those arrays.
+ * A fuzzy query only computes edit distances for the names that share enough
+ * trigrams with it to be within reach, instead of for every name.
+ *
+ * Like SpatialIndex it is built once from a snapshot of places; callers
+ * rebuild it after adding places. It is not modified by queries, so it can
+ * be searched from many threads at once.
+ */
+public class TownSearchIndex {
+    // Orders matches as callers want to see them: closest, then most populous, then by name.
+    private static final Comparator<TownMatch> RANKING = Comparator.comparingInt(TownMatch::getEditDistance)
+            .thenComparing(Comparator.comparingLong(TownMatch::getPopulation).reversed())
+            .thenComparing(TownMatch::getTown, String.CASE_INSENSITIVE_ORDER)
+            .thenComparing(TownMatch::getState, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private static final class Entry {
+        final String town;
+        final String state;
+        final String name;
+        final List<String> zipcodes = new ArrayList<>(1);
+        long population;
+
+        Entry(String town, String state) {
+            this.town = town;
+            this.state = state;
+            this.name = normalize(town);
+        }
+    }
+
+    // Entries sorted by lowercased name, then state.
+    private final Entry[] entries;
+    // The distinct lowercased names, sorted; the entries of names[i] are entries[firstEntry[i]] to entries[firstEntry[i + 1] - 1].
+    private final String[] names;
+    private final int[] firstEntry;
+    // Open-addressing table of packed trigrams; the names holding trigramKeys[slot]
+    // are postings[postingStart[slot]] to postings[postingStart[slot + 1] - 1].
+    private final long[] trigramKeys;
+    private final int[] postingStart;
+    private final int[] postings;
+
+    /**
+     * Builds the index.
+     *
+     * @param zipcodes    the zipcode of each place
+     * @param towns       the town of each place; places with a null town are left out
+     * @param states      the state of each place
+     * @param populations the population of each place, or a negative number if unknown
+     * @param size        the number of places in the arrays to use
+     */
+    public TownSearchIndex(String[] zipcodes, String[] towns, String[] states, int[] populations, int size) {
+        Map<String, Entry> byTownAndState = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (towns[i] == null) {
+                continue;
+            }
+            String key = normalize(towns[i]) + '\n' + states[i];
+            Entry entry = byTownAndState.get(key);
+            if (entry == null) {
+                entry = new Entry(towns[i], states[i]);
+                byTownAndState.put(key, entry);
+            }
+            entry.zipcodes.add(zipcodes[i]);
+            entry.population += Math.max(0, populations[i]);
+        }
+        // The keys sort by name, then state, and compare faster than the entries would through a Comparator.
+        String[] keys = byTownAndState.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        entries = new Entry[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            entries[i] = byTownAndState.get(keys[i]);
+        }
+
+        List<String> distinct = new ArrayList<>();
+        int[] first = new int[entries.length + 1];
+        for (int i = 0; i < entries.length; i++) {
+            if (i == 0 || !entries[i].name.equals(entries[i - 1].name)) {
+                first[distinct.size()] = i;
+                distinct.add(entries[i].name);
+            }
+        }
+        first[distinct.size()] = entries.length;
+        names = distinct.toArray(new String[0]);
+        firstEntry = Arrays.copyOf(first, names.length + 1);
+
+        // Sizes the table at twice the number of distinct trigrams, counts the
+        // names per trigram, then lays the lists out one after another.
+        int total = 0;
+        long[][] trigramsOfName = new long[names.length][];
+        for (int id = 0; id < names.length; id++) {
+            trigramsOfName[id] = trigrams(names[id]);
+            total += trigramsOfName[id].length;
+        }
+        long[] all = new long[total];
+        int filled = 0;
+        for (long[] trigrams : trigramsOfName) {
+            System.arraycopy(trigrams, 0, all, filled, trigrams.length);
+            filled += trigrams.length;
+        }
+        Arrays.sort(all);
+        int distinctTrigrams = 0;
+        for (int i = 0; i < total; i++) {
+            if (i == 0 || all[i] != all[i - 1]) {
+                distinctTrigrams++;
+            }
+        }
+        trigramKeys = new long[Integer.highestOneBit(Math.max(1, distinctTrigrams)) << 2];
+        Arrays.fill(trigramKeys, EMPTY);
+        int[] counts = new int[trigramKeys.length];
+        for (long[] trigrams : trigramsOfName) {
+            for (long trigram : trigrams) {
+                counts[insert(trigram)]++;
+            }
+        }
+        postingStart = new int[trigramKeys.length + 1];
+        for (int slot = 0; slot < trigramKeys.length; slot++) {
+            postingStart[slot + 1] = postingStart[slot] + counts[slot];
+        }
+        postings = new int[postingStart[trigramKeys.length]];
+        for (int id = 0; id < names.length; id++) {
+            for (long trigram : trigramsOfName[id]) {
+                int slot = find(trigram);
+                postings[postingStart[slot + 1] - counts[slot]--] = id;
+            }
+        }
+    }
+
+    private static final long EMPTY = -1;
+
+    private int insert(long trigram) {
+        int slot = slotOf(trigram);
+        while (trigramKeys[slot] != EMPTY && trigramKeys[slot] != trigram) {
+            slot = (slot + 1) & (trigramKeys.length - 1);
+        }
+        trigramKeys[slot] = trigram;
+        return slot;
+    }
+
+    /**
+     * @return the slot of the trigram, or -1 if no name holds it
+     */
+    private int find(long trigram) {
+        int slot = slotOf(trigram);
+        while (trigramKeys[slot] != trigram) {
+            if (trigramKeys[slot] == EMPTY) {
+                return -1;
+            }
+            slot = (slot + 1) & (trigramKeys.length - 1);
+        }
+        return slot;
+    }
+
+    private int slotOf(long trigram) {
+        long h = trigram * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 40) & (trigramKeys.length - 1);
+    }
+
+    /**
+     * Builds the index over every place in a database.
+     *
+     * @param db the database
+     * @return the index
+     */
+    public static TownSearchIndex of(PlaceDB db) {
+        int size = db.getSize();
+        String[] zipcodes = new String[size];
+        String[] towns = new String[size];
+        String[] states = new String[size];
+        int[] populations = new int[size];
+        for (int i = 0; i < size; i++) {
+            Place place = db.getPlace(i);
+            zipcodes[i] = place.getZipcode();
+            towns[i] = place.getTown();
+            states[i] = place.getState();
+            populations[i] = place instanceof PopulatedPlace ? ((PopulatedPlace) place).getPopulation() : -1;
+        }
+        return new TownSearchIndex(zipcodes, towns, states, populations, size);
+    }
+
+    /**
+     * @return the number of distinct town and state pairs in the index
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * Completes a partly typed town name.
+     *
+     * @param prefix the start of the town name, in any case
+     * @param state  the state to keep, or null for every state
+     * @param k      the most matches wanted
+     * @return up to k towns whose names start with prefix, most populous first
+     */
+    public List<TownMatch> complete(String prefix, String state, int k) {
+        String start = normalize(prefix);
+        PriorityQueue<TownMatch> best = new PriorityQueue<>(RANKING.reversed());
+        int id = Arrays.binarySearch(names, start);
+        for (id = id < 0 ? -id - 1 : id; id < names.length && names[id].startsWith(start); id++) {
+            addMatches(id, state, 0, best, k);
+        }
+        return sorted(best);
+    }
+
+    /**
+     * Finds the town names closest to a possibly misspelt query. Names are
+     * allowed to be 1 edit away for queries of 3 to 5 letters and 2 edits away
+     * for longer ones; queries of 1 or 2 letters only match exactly.
+     *
+     * @param query the town name, in any case
+     * @param state the state to keep, or null for every state
+     * @param k     the most matches wanted
+     * @return up to k towns, closest first, then most populous
+     */
+    public List<TownMatch> search(String query, String state, int k) {
+        String target = normalize(query);
+        if (target.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int maxDistance = target.length() <= 2 ? 0 : target.length() <= 5 ? 1 : 2;
+        long[] queryTrigrams = trigrams(target);
+        // One edit changes at most three trigrams, a swap of two letters four.
+        int minShared = Math.max(1, queryTrigrams.length - 4 * maxDistance);
+
+        int[] shared = new int[names.length];
+        int[] candidates = new int[names.length];
+        int candidateCount = 0;
+        for (long trigram : queryTrigrams) {
+            int slot = find(trigram);
+            for (int p = slot < 0 ? 0 : postingStart[slot]; slot >= 0 && p < postingStart[slot + 1]; p++) {
+                int id = postings[p];
+                if (shared[id]++ == 0) {
+                    candidates[candidateCount++] = id;
+                }
+            }
+        }
+        PriorityQueue<TownMatch> best = new PriorityQueue<>(RANKING.reversed());
+        for (int c = 0; c < candidateCount; c++) {
+            int id = candidates[c];
+            if (shared[id] >= minShared && Math.abs(names[id].length() - target.length()) <= maxDistance) {
+                int distance = editDistance(target, names[id], maxDistance);
+                if (distance <= maxDistance) {
+                    addMatches(id, state, distance, best, k);
+                }
+            }
+        }
+        return sorted(best);
+    }
+
+    /**
+     * Offers the entries of a name to a heap holding the k best matches so far, worst on top.
+     */
+    private void addMatches(int id, String state, int distance, PriorityQueue<TownMatch> best, int k) {
+        for (int i = firstEntry[id]; i < firstEntry[id + 1] && k > 0; i++) {
+            Entry entry = entries[i];
+            if (state == null || state.equalsIgnoreCase(entry.state)) {
+                TownMatch match = new TownMatch(entry.town, entry.state, entry.zipcodes, entry.population, distance);
+                if (best.size() < k) {
+                    best.add(match);
+                } else if (RANKING.compare(match, best.peek()) < 0) {
+                    best.poll();
+                    best.add(match);
+                }
+            }
+        }
+    }
+
+    private static List<TownMatch> sorted(PriorityQueue<TownMatch> best) {
+        List<TownMatch> matches = new ArrayList<>(best);
+        matches.sort(RANKING);
+        return matches;
+    }
+
+    private static String normalize(String town) {
+        return town == null ? "" : town.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Splits a name, padded with two spaces in front and one behind, into its
+     * distinct three-letter pieces, each packed into a long as three 16-bit chars.
+     */
+    private static long[] trigrams(String name) {
+        String padded = "  " + name + " ";
+        long[] trigrams = new long[padded.length() - 2];
+        int count = 0;
+        next:
+        for (int i = 0; i < trigrams.length; i++) {
+            long trigram = (long) padded.charAt(i) << 32 | (long) padded.charAt(i + 1) << 16 | padded.charAt(i + 2);
+            for (int j = 0; j < count; j++) {
+                if (trigrams[j] == trigram) {
+                    continue next;
+                }
+            }
+            trigrams[count++] = trigram;
+        }
+        return count == trigrams.length ? trigrams : Arrays.copyOf(trigrams, count);
+    }
+
+    /**
+     * Computes the optimal string alignment distance: the fewest insertions,
+     * deletions, replacements and swaps of adjacent letters turning a into b.
+     * Stops early once every path costs more than max.
+     *
+     * @return the distance, or max + 1 if it is more than max
+     */
+    static int editDistance(String a, String b, int max) {
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int distance = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    distance = Math.min(distance, previous2[j - 2] + 1);
+                }
+                current[j] = distance;
+                rowMin = Math.min(rowMin, distance);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+}
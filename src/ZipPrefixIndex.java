@@ -0,0 +1,55 @@
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Zipcodes kept in sorted order, so all zipcodes starting with a prefix form
+ * one contiguous range that is found in O(log n) and then walked in order.
+ */
+public class ZipPrefixIndex {
+    private final TreeMap<String, Integer> rowsByZipcode;
+
+    public ZipPrefixIndex() {
+        rowsByZipcode = new TreeMap<>();
+    }
+
+    /**
+     * Copy constructor; the copy shares nothing with the original.
+     *
+     * @param other the index to copy
+     */
+    public ZipPrefixIndex(ZipPrefixIndex other) {
+        rowsByZipcode = new TreeMap<>(other.rowsByZipcode);
+    }
+
+    /**
+     * Adds a zipcode.
+     *
+     * @param zipcode the zipcode; null zipcodes are not indexed
+     * @param row     the row of the place with that zipcode
+     */
+    public void add(String zipcode, int row) {
+        if (zipcode != null) {
+            rowsByZipcode.put(zipcode, row);
+        }
+    }
+
+    /**
+     * Returns the rows of every zipcode starting with a prefix, in zipcode order.
+     * The stream is lazy and reads the index as it goes, so it must be consumed
+     * before the index is changed.
+     *
+     * @param prefix the prefix
+     * @return the rows
+     */
+    public IntStream rows(String prefix) {
+        return rowsByZipcode.subMap(prefix, true, prefix + Character.MAX_VALUE, false)
+                .values().stream().mapToInt(Integer::intValue);
+    }
+
+    /**
+     * Removes every zipcode from the index.
+     */
+    public void clear() {
+        rowsByZipcode.clear();
+    }
+}
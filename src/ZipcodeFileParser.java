@@ -0,0 +1,476 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parser for uszipcodes.csv and ziplocs.csv that works on the bytes of a
+ * memory-mapped file. Fields are located by scanning for commas and numbers
+ * are parsed straight from the bytes, so the only Strings created per row
+ * are the zipcode, town and state a Place needs.
+ * Rows are split on commas exactly like String.split(","), including the
+ * dropping of trailing empty fields, so the validity checks match the
+ * Scanner based loader this replaces.
+ */
+public class ZipcodeFileParser {
+    private static final int MAX_FIELDS = 16;
+    /** Chunks smaller than this are not worth handing to another thread. */
+    private static final int MIN_CHUNK_BYTES = 64 * 1024;
+
+    /** Largest mantissa for which mantissa / 10^n is exactly rounded. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private ZipcodeFileParser() {
+    }
+
+    /**
+     * Maps a whole file read-only into memory.
+     *
+     * @param fileName the file to map
+     * @return a buffer over the file contents
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException           if the file cannot be mapped
+     */
+    public static MappedByteBuffer map(String fileName) throws IOException {
+        File file = new File(fileName);
+        if (!file.exists()) {
+            throw new FileNotFoundException(fileName + " (No such file or directory)");
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reads uszipcodes.csv and ziplocs.csv and joins them. Each file is read
+     * once: the places are hashed by zipcode, so every ziplocs.csv row finds its
+     * place with a single index lookup. When several rows share a zipcode only
+     * the first gets a location, since databases keep only the first of them.
+     * A missing ziplocs file is reported, and the places come back without locations.
+     *
+     * @param zipcodesFile the uszipcodes.csv file
+     * @param ziplocsFile  the ziplocs.csv file
+     * @param parallel     whether to parse each file in chunks on the common ForkJoinPool
+     * @return the places in uszipcodes.csv order, with locations where known
+     * @throws FileNotFoundException if the zipcodes file is not found
+     * @throws IOException           if either file cannot be read
+     */
+    public static List<Place> readZipCodeFiles(String zipcodesFile, String ziplocsFile, boolean parallel)
+            throws IOException {
+        // Read places and populations from uszipcodes.csv
+        ByteBuffer zipcodes = map(zipcodesFile);
+        int end = zipcodes.limit();
+        int start = nextLineStart(zipcodes, 0, end); // Skip header
+        List<Place> places;
+        if (parallel) {
+            places = readPlacesInParallel(zipcodes, start, end);
+        } else {
+            places = new ArrayList<>();
+            readPlaces(zipcodes, start, end, places);
+        }
+
+        // Read latitude and longitude from ziplocs.csv
+        Locations locations = new Locations();
+        if (new File(ziplocsFile).exists()) {
+            ByteBuffer ziplocs = map(ziplocsFile);
+            end = ziplocs.limit();
+            start = nextLineStart(ziplocs, 0, end); // Skip header
+            if (parallel) {
+                readLocationsInParallel(ziplocs, start, end, locations);
+            } else {
+                readLocations(ziplocs, start, end, locations);
+            }
+        } else {
+            System.out.println(ziplocsFile + " not found; places are loaded without locations");
+        }
+
+        // Join the locations to the places
+        ZipcodeIndex index = new ZipcodeIndex(places.size());
+        for (int i = 0; i < places.size(); i++) {
+            index.putIfAbsent(places.get(i).getZipcode(), i);
+        }
+        for (int i = 0; i < locations.size(); i++) {
+            int row = locations.find(i, index);
+            if (row != ZipcodeIndex.NOT_FOUND) {
+                places.set(row, withLocation(places.get(row), locations.getLatitude(i), locations.getLongitude(i)));
+            }
+        }
+        return places;
+    }
+
+    /**
+     * Gives a place a location. LocatedPlaces are updated in place;
+     * a plain Place is replaced by a LocatedPlace.
+     */
+    private static Place withLocation(Place place, double latitude, double longitude) {
+        if (place instanceof LocatedPlace) {
+            LocatedPlace located = (LocatedPlace) place;
+            located.setLatitude(latitude);
+            located.setLongitude(longitude);
+            return located;
+        }
+        return new LocatedPlace(place.getZipcode(), place.getTown(), place.getState(), latitude, longitude);
+    }
+
+    /**
+     * Finds the start of the line following the one containing pos.
+     *
+     * @param buffer the mapped file
+     * @param pos    any position within a line
+     * @param limit  the end of the region to search
+     * @return the position just past the next newline, or limit if there is none
+     */
+    public static int nextLineStart(ByteBuffer buffer, int pos, int limit) {
+        while (pos < limit && buffer.get(pos) != '\n') {
+            pos++;
+        }
+        return Math.min(pos + 1, limit);
+    }
+
+    /**
+     * Parses uszipcodes.csv rows (zip,city,state,population,males,females) into places.
+     * Rows with a population become PopulatedPlaces without a location yet,
+     * the rest plain Places. Missing male and female counts are read as 0.
+     * Invalid rows are reported and skipped.
+     *
+     * @param buffer the mapped file
+     * @param start  the first byte of the first row to parse
+     * @param end    the byte after the last row to parse
+     * @param places the list the parsed places are appended to
+     */
+    public static void readPlaces(ByteBuffer buffer, int start, int end, List<Place> places) {
+        int[] fieldStart = new int[MAX_FIELDS + 1];
+        byte[] scratch = new byte[64];
+        int pos = start;
+        while (pos < end) {
+            int lineEnd = lineEnd(buffer, pos, end);
+            int fields = splitFields(buffer, pos, lineEnd, fieldStart);
+            if (lineEnd > pos) {
+                if (fields < 3) {
+                    System.out.println("Invalid line in uszipcodes.csv: " + text(buffer, pos, lineEnd, scratch));
+                } else {
+                    try {
+                        String zipcode = field(buffer, fieldStart, 0, scratch);
+                        String town = field(buffer, fieldStart, 1, scratch);
+                        String state = field(buffer, fieldStart, 2, scratch);
+                        if (fields >= 4 && fieldLength(fieldStart, 3) > 0) {
+                            int population = parseInt(buffer, fieldStart[3], fieldStart[4] - 1);
+                            int males = fields >= 5 && fieldLength(fieldStart, 4) > 0
+                                    ? parseInt(buffer, fieldStart[4], fieldStart[5] - 1) : 0;
+                            int females = fields >= 6 && fieldLength(fieldStart, 5) > 0
+                                    ? parseInt(buffer, fieldStart[5], fieldStart[6] - 1) : 0;
+                            places.add(new PopulatedPlace(zipcode, town, state, 0, 0, population, males, females));
+                        } else {
+                            places.add(new Place(zipcode, town, state));
+                        }
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid number format in uszipcodes.csv: " + text(buffer, pos, lineEnd, scratch));
+                    }
+                }
+            }
+            pos = nextLineStart(buffer, lineEnd, end);
+        }
+    }
+
+    /**
+     * Parses ziplocs.csv rows, keeping the zipcode (column 0), latitude (column 5)
+     * and longitude (column 6) of every row that has both coordinates.
+     * Invalid rows are reported and skipped.
+     *
+     * @param buffer    the mapped file
+     * @param start     the first byte of the first row to parse
+     * @param end       the byte after the last row to parse
+     * @param locations the rows the parsed locations are appended to
+     */
+    public static void readLocations(ByteBuffer buffer, int start, int end, Locations locations) {
+        int[] fieldStart = new int[MAX_FIELDS + 1];
+        byte[] scratch = new byte[64];
+        int pos = start;
+        while (pos < end) {
+            int lineEnd = lineEnd(buffer, pos, end);
+            int fields = splitFields(buffer, pos, lineEnd, fieldStart);
+            if (lineEnd > pos) {
+                if (fields < 8) {
+                    System.out.println("Invalid line in ziplocs.csv: " + text(buffer, pos, lineEnd, scratch));
+                } else if (fieldLength(fieldStart, 5) > 0 && fieldLength(fieldStart, 6) > 0) {
+                    try {
+                        double latitude = parseDouble(buffer, fieldStart[5], fieldStart[6] - 1, scratch);
+                        double longitude = parseDouble(buffer, fieldStart[6], fieldStart[7] - 1, scratch);
+                        int key = parseZipcode(buffer, fieldStart[0], fieldStart[1] - 1);
+                        locations.add(key, key < 0 ? field(buffer, fieldStart, 0, scratch) : null, latitude, longitude);
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid number format in ziplocs.csv: " + text(buffer, pos, lineEnd, scratch));
+                    }
+                }
+            }
+            pos = nextLineStart(buffer, lineEnd, end);
+        }
+    }
+
+    /**
+     * Parallel version of readPlaces. The region is cut into line-aligned chunks
+     * that are parsed on the common ForkJoinPool; the chunk results are then
+     * concatenated in file order, so the places come out exactly as readPlaces
+     * would return them. Only the order of any invalid-line messages can differ.
+     *
+     * @param buffer the mapped file
+     * @param start  the first byte of the first row to parse
+     * @param end    the byte after the last row to parse
+     * @return the parsed places in file order
+     */
+    public static List<Place> readPlacesInParallel(ByteBuffer buffer, int start, int end) {
+        int[] bounds = chunkBoundaries(buffer, start, end);
+        List<ForkJoinTask<List<Place>>> tasks = new ArrayList<>();
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            int from = bounds[i];
+            int to = bounds[i + 1];
+            tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                List<Place> chunk = new ArrayList<>();
+                readPlaces(buffer, from, to, chunk);
+                return chunk;
+            }));
+        }
+        List<Place> places = new ArrayList<>();
+        for (ForkJoinTask<List<Place>> task : tasks) {
+            places.addAll(task.join());
+        }
+        return places;
+    }
+
+    /**
+     * Parallel version of readLocations, merging the chunk results in file order.
+     *
+     * @param buffer    the mapped file
+     * @param start     the first byte of the first row to parse
+     * @param end       the byte after the last row to parse
+     * @param locations the rows the parsed locations are appended to
+     */
+    public static void readLocationsInParallel(ByteBuffer buffer, int start, int end, Locations locations) {
+        int[] bounds = chunkBoundaries(buffer, start, end);
+        List<ForkJoinTask<Locations>> tasks = new ArrayList<>();
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            int from = bounds[i];
+            int to = bounds[i + 1];
+            tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                Locations chunk = new Locations();
+                readLocations(buffer, from, to, chunk);
+                return chunk;
+            }));
+        }
+        for (ForkJoinTask<Locations> task : tasks) {
+            locations.addAll(task.join());
+        }
+    }
+
+    /**
+     * Cuts [start, end) into roughly equal chunks, one or a few per core,
+     * moving every cut forward to the start of the next line.
+     *
+     * @return the chunk boundaries, starting with start and ending with end
+     */
+    private static int[] chunkBoundaries(ByteBuffer buffer, int start, int end) {
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4,
+                (end - start) / MIN_CHUNK_BYTES));
+        int[] bounds = new int[chunks + 1];
+        bounds[0] = start;
+        for (int i = 1; i < chunks; i++) {
+            int cut = start + (int) ((long) (end - start) * i / chunks);
+            bounds[i] = Math.max(bounds[i - 1], nextLineStart(buffer, cut - 1, end));
+        }
+        bounds[chunks] = end;
+        return bounds;
+    }
+
+    /**
+     * Rows parsed from ziplocs.csv, kept in primitive arrays.
+     * Zipcodes are encoded with ZipcodeIndex.encode; the rare zipcode that is
+     * not five digits is kept as a String instead.
+     */
+    public static class Locations {
+        private int size;
+        private int[] keys = new int[1024];
+        private String[] otherZipcodes;
+        private double[] latitudes = new double[1024];
+        private double[] longitudes = new double[1024];
+
+        void add(int key, String zipcode, double latitude, double longitude) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                latitudes = Arrays.copyOf(latitudes, size * 2);
+                longitudes = Arrays.copyOf(longitudes, size * 2);
+                if (otherZipcodes != null) {
+                    otherZipcodes = Arrays.copyOf(otherZipcodes, size * 2);
+                }
+            }
+            if (zipcode != null) {
+                if (otherZipcodes == null) {
+                    otherZipcodes = new String[keys.length];
+                }
+                otherZipcodes[size] = zipcode;
+            }
+            keys[size] = key;
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            size++;
+        }
+
+        void addAll(Locations other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.keys[i], other.keys[i] < 0 ? other.otherZipcodes[i] : null,
+                        other.latitudes[i], other.longitudes[i]);
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Looks up the row of the place each location belongs to.
+         *
+         * @param i     the location
+         * @param index the zipcode index of the places
+         * @return the row, or ZipcodeIndex.NOT_FOUND
+         */
+        public int find(int i, ZipcodeIndex index) {
+            return keys[i] >= 0 ? index.get(keys[i]) : index.get(otherZipcodes[i]);
+        }
+
+        public double getLatitude(int i) {
+            return latitudes[i];
+        }
+
+        public double getLongitude(int i) {
+            return longitudes[i];
+        }
+    }
+
+    private static int lineEnd(ByteBuffer buffer, int pos, int end) {
+        int lineEnd = pos;
+        while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+            lineEnd++;
+        }
+        if (lineEnd > pos && buffer.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        return lineEnd;
+    }
+
+    /**
+     * Records where each field of a line starts. fieldStart[i + 1] - 1 is the
+     * end of field i. Like String.split, trailing empty fields are not counted.
+     *
+     * @return the number of fields
+     */
+    private static int splitFields(ByteBuffer buffer, int pos, int lineEnd, int[] fieldStart) {
+        int count = 0;
+        int nonEmpty = 0;
+        fieldStart[0] = pos;
+        for (int i = pos; i <= lineEnd && count < MAX_FIELDS; i++) {
+            if (i == lineEnd || buffer.get(i) == ',') {
+                if (i > fieldStart[count]) {
+                    nonEmpty = count + 1;
+                }
+                fieldStart[++count] = i + 1;
+            }
+        }
+        return nonEmpty;
+    }
+
+    private static int fieldLength(int[] fieldStart, int field) {
+        return fieldStart[field + 1] - 1 - fieldStart[field];
+    }
+
+    private static String field(ByteBuffer buffer, int[] fieldStart, int field, byte[] scratch) {
+        return text(buffer, fieldStart[field], fieldStart[field + 1] - 1, scratch);
+    }
+
+    private static String text(ByteBuffer buffer, int from, int to, byte[] scratch) {
+        int length = to - from;
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(from, bytes, 0, length);
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = bytes[i] >= 0;
+        }
+        return new String(bytes, 0, length, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the zipcode encoded as by ZipcodeIndex.encode, or -1 if it is not five digits
+     */
+    private static int parseZipcode(ByteBuffer buffer, int from, int to) {
+        if (to - from != 5) {
+            return -1;
+        }
+        int key = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            key = key * 10 + digit;
+        }
+        return key;
+    }
+
+    private static int parseInt(ByteBuffer buffer, int from, int to) {
+        boolean negative = from < to && buffer.get(from) == '-';
+        int i = negative || (from < to && buffer.get(from) == '+') ? from + 1 : from;
+        if (i == to || to - i > 9) {
+            throw new NumberFormatException();
+        }
+        int value = 0;
+        for (; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException();
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses plain decimals such as -72.6372 directly. Anything else
+     * (exponents, very long mantissas) is handed to Double.parseDouble.
+     */
+    private static double parseDouble(ByteBuffer buffer, int from, int to, byte[] scratch) {
+        boolean negative = from < to && buffer.get(from) == '-';
+        int i = negative || (from < to && buffer.get(from) == '+') ? from + 1 : from;
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (b >= '0' && b <= '9' && mantissa < MAX_EXACT_MANTISSA) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else {
+                return Double.parseDouble(text(buffer, from, to, scratch));
+            }
+        }
+        if (digits == 0 || mantissa >= MAX_EXACT_MANTISSA || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(text(buffer, from, to, scratch));
+        }
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,204 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Hash index from zipcode to a row number in a place table.
+ * Five digit zipcodes are encoded as ints and kept in an open-addressing
+ * table of primitive arrays, so lookups neither box nor hash Strings.
+ * Any other zipcode (entered by hand, for example) falls back to a HashMap.
+ */
+public class ZipcodeIndex {
+    /** Returned by get when the zipcode is not in the index. */
+    public static final int NOT_FOUND = -1;
+
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] rows;
+    private int numericCount;
+    private final HashMap<String, Integer> otherZipcodes;
+
+    public ZipcodeIndex() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates an index sized to hold the expected number of zipcodes without rehashing.
+     *
+     * @param expectedSize the number of zipcodes expected
+     */
+    public ZipcodeIndex(int expectedSize) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        rows = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        otherZipcodes = new HashMap<>();
+    }
+
+    /**
+     * Copy constructor; the copy shares nothing with the original.
+     *
+     * @param other the index to copy
+     */
+    public ZipcodeIndex(ZipcodeIndex other) {
+        keys = other.keys.clone();
+        rows = other.rows.clone();
+        numericCount = other.numericCount;
+        otherZipcodes = new HashMap<>(other.otherZipcodes);
+    }
+
+    /**
+     * Encodes a five digit zipcode as an int.
+     *
+     * @param zipcode the zipcode to encode
+     * @return the numeric value of the zipcode, or -1 if it is not exactly five digits
+     */
+    public static int encode(String zipcode) {
+        if (zipcode == null || zipcode.length() != 5) {
+            return -1;
+        }
+        int key = 0;
+        for (int i = 0; i < 5; i++) {
+            char c = zipcode.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            key = key * 10 + (c - '0');
+        }
+        return key;
+    }
+
+    /**
+     * Decodes an int produced by encode back to its five digit zipcode.
+     *
+     * @param key the encoded zipcode
+     * @return the zipcode with its leading zeros restored
+     */
+    public static String decode(int key) {
+        char[] digits = new char[5];
+        for (int i = 4; i >= 0; i--) {
+            digits[i] = (char) ('0' + key % 10);
+            key /= 10;
+        }
+        return new String(digits);
+    }
+
+    /**
+     * Looks up the row stored for a zipcode. Lookups ignore case like
+     * MyPlaceDatabase.lookupByZipcode always has.
+     *
+     * @param zipcode the zipcode to look up
+     * @return the row, or NOT_FOUND
+     */
+    public int get(String zipcode) {
+        int key = encode(zipcode);
+        if (key >= 0) {
+            return get(key);
+        }
+        if (zipcode == null) {
+            return NOT_FOUND;
+        }
+        Integer row = otherZipcodes.get(zipcode.toUpperCase(Locale.ROOT));
+        return row == null ? NOT_FOUND : row;
+    }
+
+    /**
+     * Looks up the row stored for an encoded zipcode.
+     *
+     * @param key the zipcode as returned by encode
+     * @return the row, or NOT_FOUND
+     */
+    public int get(int key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return rows[slot];
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Adds a zipcode unless it is already present.
+     *
+     * @param zipcode the zipcode to add
+     * @param row     the row of the place with that zipcode
+     * @return true if added, false if the zipcode was already indexed
+     */
+    public boolean putIfAbsent(String zipcode, int row) {
+        int key = encode(zipcode);
+        if (key >= 0) {
+            return putIfAbsent(key, row);
+        }
+        return otherZipcodes.putIfAbsent(zipcode.toUpperCase(Locale.ROOT), row) == null;
+    }
+
+    /**
+     * Adds an encoded zipcode unless it is already present.
+     *
+     * @param key the zipcode as returned by encode
+     * @param row the row of the place with that zipcode
+     * @return true if added, false if the zipcode was already indexed
+     */
+    public boolean putIfAbsent(int key, int row) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        rows[slot] = row;
+        if (++numericCount * 2 > keys.length) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Removes every zipcode from the index.
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        numericCount = 0;
+        otherZipcodes.clear();
+    }
+
+    /**
+     * @return the number of zipcodes in the index
+     */
+    public int size() {
+        return numericCount + otherZipcodes.size();
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldRows = rows;
+        keys = new int[oldKeys.length * 2];
+        rows = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                rows[slot] = oldRows[i];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,135 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/**
+ * Reader/writer correctness check for ConcurrentPlaceDatabase. Writer threads
+ * add places with zipcodes of their own while reader threads query the
+ * database, and the readers check that what they see is consistent: the size
+ * never shrinks, and every place a writer had finished adding before the read
+ * started is found by zipcode, by town name and in the population queries.
+ * One writer also sorts now and then, so reads race with sorts as well.
+ * At the end every place must be there exactly once.
+ * It reads uszipcodes.csv from the working directory, which Maven sets to the
+ * project directory.
+ */
+public class ConcurrentPlaceDatabaseStressTest {
+    private static final String STATE = "ZZ"; // not a real state, so only the added places have it
+    private static final int WRITERS = 4;
+    private static final int PER_WRITER = 200;
+    private static final int READERS = 4;
+    private static final int MAX_FAILURES = 20;
+
+    private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+
+    @Test
+    @Timeout(value = 2, unit = TimeUnit.MINUTES)
+    public void readersSeeEveryFinishedWrite() throws IOException, InterruptedException {
+        List<Place> places = ZipcodeFileParser.readZipCodeFiles("uszipcodes.csv", "ziplocs.csv", false);
+        ConcurrentPlaceDatabase db = new ConcurrentPlaceDatabase();
+        db.addAll(places);
+        int initialSize = db.getSize();
+
+        // added[w] is how many places writer w has finished adding.
+        AtomicIntegerArray added = new AtomicIntegerArray(WRITERS);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> writerThreads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writerThreads.add(new Thread(() -> {
+                for (int i = 0; i < PER_WRITER; i++) {
+                    db.addPlace(place(writer, i));
+                    added.set(writer, i + 1);
+                    if (writer == 0 && i % 50 == 49) {
+                        db.sortByTownName();
+                    }
+                }
+            }, "writer-" + w));
+        }
+        List<Thread> readerThreads = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            Random random = new Random(r);
+            readerThreads.add(new Thread(() -> {
+                int lastSize = 0;
+                while (running.get() && failures.size() < MAX_FAILURES) {
+                    int writer = random.nextInt(WRITERS);
+                    int done = added.get(writer);
+                    int size = db.getSize();
+                    check(size >= lastSize, "size went from " + lastSize + " to " + size);
+                    check(size >= initialSize + done, "size " + size + " misses places of writer " + writer);
+                    lastSize = size;
+                    if (done > 0) {
+                        int i = random.nextInt(done);
+                        Place place = db.lookupByZipcode(zipcode(writer, i));
+                        check(place != null && town(writer).equals(place.getTown()),
+                                zipcode(writer, i) + " looked up as " + place);
+                    }
+                    int byTown = db.lookupByTownName(town(writer)).size();
+                    check(byTown >= done, town(writer) + " has " + byTown + " places, " + done + " were added");
+                    PopulationStats stats = db.populationByState().get(STATE);
+                    int inState = stats == null ? 0 : stats.getPlaces();
+                    int ranked = db.findByPopulation(STATE, 1, Integer.MAX_VALUE).size();
+                    // Two calls may see two snapshots, but never an older one second.
+                    check(inState <= ranked, STATE + " has " + inState + " places in the rollup but only "
+                            + ranked + " in the later population ranking");
+                    check(inState >= done, STATE + " has " + inState + " places, writer " + writer
+                            + " added " + done);
+                }
+            }, "reader-" + r));
+        }
+        readerThreads.forEach(Thread::start);
+        writerThreads.forEach(Thread::start);
+        for (Thread thread : writerThreads) {
+            thread.join();
+        }
+        running.set(false);
+        for (Thread thread : readerThreads) {
+            thread.join();
+        }
+
+        check(db.getSize() == initialSize + WRITERS * PER_WRITER,
+                "size " + db.getSize() + ", expected " + (initialSize + WRITERS * PER_WRITER));
+        for (int w = 0; w < WRITERS; w++) {
+            for (int i = 0; i < PER_WRITER; i++) {
+                Place place = db.lookupByZipcode(zipcode(w, i));
+                check(place != null && town(w).equals(place.getTown()), zipcode(w, i) + " looked up as " + place);
+            }
+            check(db.lookupByTownName(town(w)).size() == PER_WRITER, town(w) + " has "
+                    + db.lookupByTownName(town(w)).size() + " places, expected " + PER_WRITER);
+        }
+        check(db.topByPopulation(STATE, Integer.MAX_VALUE).size() == WRITERS * PER_WRITER,
+                STATE + " ranks " + db.topByPopulation(STATE, Integer.MAX_VALUE).size() + " places");
+        check(db.sequentialSearchByTownName(town(0)) >= 0, town(0) + " not found by sequential search");
+
+        assertTrue(failures.isEmpty(), () -> String.join("\n", failures.stream().limit(MAX_FAILURES).toList()));
+    }
+
+    private void check(boolean condition, String message) {
+        if (!condition) {
+            failures.add(message);
+        }
+    }
+
+    private static PopulatedPlace place(int writer, int i) {
+        return new PopulatedPlace(zipcode(writer, i), town(writer), STATE,
+                40 + writer * 0.01, -100 + i * 0.001, i + 1);
+    }
+
+    private static String zipcode(int writer, int i) {
+        return "S" + writer + "-" + i;
+    }
+
+    private static String town(int writer) {
+        return "STRESSTOWN" + writer;
+    }
+}